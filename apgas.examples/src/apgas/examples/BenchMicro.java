@@ -15,6 +15,8 @@ import static apgas.Constructs.*;
 
 import apgas.Configuration;
 import apgas.Place;
+import apgas.impl.Config;
+import apgas.impl.GlobalRuntimeImpl;
 
 public class BenchMicro {
   static int OUTER_ITERS = 100;
@@ -23,6 +25,11 @@ public class BenchMicro {
   // require each test to run for at least 10 seconds (reduce jitter)
   static long MIN_NANOS = 10 * 1000000000L;
 
+  // number of bulk tasks in flight per place when generating bulk traffic
+  static int BULK_WINDOW = 4;
+
+  static volatile boolean bulkStopped;
+
   public static void main(String[] args) {
     if (System.getProperty(Configuration.APGAS_PLACES) == null) {
       System.setProperty(Configuration.APGAS_PLACES, "4");
@@ -35,16 +42,28 @@ public class BenchMicro {
     }
 
     final long thinkTime = args.length == 0 ? 0 : Long.parseLong(args[0]);
+    final int bulkBytes = args.length < 2 ? 0 : Integer.parseInt(args[1]);
 
     final boolean resilient = Boolean.getBoolean(Configuration.APGAS_RESILIENT);
     System.out
         .println("Configuration: " + (resilient ? "" : "not ") + "resilient");
 
     System.out.println("Running with " + places().size() + " places.");
+    System.out.println("Transport: " + (Boolean.getBoolean(Config.APGAS_LOCAL)
+        ? "in-process places"
+        : System.getProperty(Config.APGAS_TRANSPORT, "apgas.impl.Transport")));
     System.out.println(
         "Min elapsed time for each test: " + MIN_NANOS / 1e9 + " seconds.");
     System.out.println(
         "Think time for each activity: " + thinkTime + " nanoseconds.");
+    System.out.println("Background bulk traffic: " + bulkBytes
+        + " bytes per task, " + BULK_WINDOW + " tasks in flight per place.");
+
+    if (bulkBytes > 0) {
+      for (final Place p : places()) {
+        uncountedAsyncAt(p, () -> bulk(bulkBytes));
+      }
+    }
 
     System.out.println("Test based from place 0");
     doTest("place 0 -- ", thinkTime);
@@ -53,6 +72,39 @@ public class BenchMicro {
     System.out.println("Test based from place 1");
     at(place(1), () -> doTest("place 1 -- ", thinkTime));
     System.out.println();
+
+    if (bulkBytes > 0) {
+      finish(() -> {
+        for (final Place p : places()) {
+          asyncAt(p, () -> bulkStopped = true);
+        }
+      });
+    }
+
+    if (!"java".equals(System.getProperty(Config.APGAS_SERIALIZATION))) {
+      System.out.println("Lambda serialization");
+      for (final Place p : places()) {
+        System.out.println("place " + p.id + " -- " + at(p,
+            () -> GlobalRuntimeImpl.getRuntime().getLambdaDictionary()
+                .toString()));
+      }
+    }
+  }
+
+  // keeps sending tasks with large payloads to the next place until stopped
+  private static void bulk(int bytes) {
+    final byte[] payload = new byte[bytes];
+    final Place next = place((here().id + 1) % places().size());
+    while (!bulkStopped) {
+      finish(() -> {
+        for (int i = 0; i < BULK_WINDOW; ++i) {
+          asyncAt(next, () -> {
+            @SuppressWarnings("unused")
+            final byte[] received = payload;
+          });
+        }
+      });
+    }
   }
 
   public static void doTest(final String prefix, long t) {
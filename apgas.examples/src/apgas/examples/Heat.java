@@ -42,24 +42,17 @@ public class Heat {
     previous = current;
     current = temp;
     final double maxDelta = 0;
-    finish(() -> {
-      for (int i = 1; i <= N - 2; i++) {
-        final int x = i;
-        async(() -> {
-          double localMax = 0.0;
-          for (int y = 1; y <= N - 2; y++) {
-            current[x * N
-                + y] = (previous[x * N + y + 1] + previous[x * N + y - 1]
-                    + previous[(x + 1) * N + y] + previous[(x - 1) * N + y])
-                    / 4.0;
-            localMax = Math.max(localMax,
-                Math.abs(current[x * N + y] - previous[x * N + y]));
-          }
-          // TODO reduction
-          // atomic maxDelta = Math.max(localMax, maxDelta);
-        });
+    finish(() -> forAsync(1, N - 1, x -> {
+      double localMax = 0.0;
+      for (int y = 1; y <= N - 2; y++) {
+        current[x * N + y] = (previous[x * N + y + 1] + previous[x * N + y - 1]
+            + previous[(x + 1) * N + y] + previous[(x - 1) * N + y]) / 4.0;
+        localMax = Math.max(localMax,
+            Math.abs(current[x * N + y] - previous[x * N + y]));
       }
-    });
+      // TODO reduction
+      // atomic maxDelta = Math.max(localMax, maxDelta);
+    }));
     return maxDelta;
   }
 
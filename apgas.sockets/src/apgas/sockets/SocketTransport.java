@@ -11,36 +11,75 @@
 
 package apgas.sockets;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.List;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import com.esotericsoftware.kryo.io.ByteBufferInput;
+import com.esotericsoftware.kryo.io.ByteBufferOutput;
 
 import x10.network.NetworkTransportCallbacks;
 import apgas.DeadPlaceException;
 import apgas.Place;
+import apgas.impl.Coalescer;
+import apgas.impl.Compressor;
+import apgas.impl.Config;
 import apgas.impl.GlobalRuntimeImpl;
+import apgas.impl.OutputPool;
 import apgas.impl.SerializableRunnable;
 import apgas.impl.Transport;
 
 /**
  * The {@link SocketTransport} class manages the Hazelcast cluster and
  * implements active messages via direct socket links.
+ * <p>
+ * Control and bulk messages are coalesced separately and tagged with distinct
+ * message IDs, so that control messages are never batched behind large
+ * tasks. The receiving threads deserialize all messages in place, reusing one
+ * input per thread.
  */
 public class SocketTransport extends Transport implements
     NetworkTransportCallbacks {
+  /**
+   * Message ID of a single serialized runnable.
+   */
+  private static final int MESSAGE = 0;
+
+  /**
+   * Message ID of a batch of serialized runnables.
+   */
+  private static final int BATCH = 1;
+
+  /**
+   * Message ID of a single serialized control message.
+   */
+  private static final int CONTROL_MESSAGE = 2;
+
+  /**
+   * Message ID of a batch of serialized control messages.
+   */
+  private static final int CONTROL_BATCH = 3;
 
   private final x10.network.SocketTransport localTransport;
-  private final ExecutorService immediateThreads;
-  private boolean running = true;
+  private final ThreadPoolExecutor immediateThreads;
+  private final Thread[] receivers;
+  private volatile boolean running = true;
   private final GlobalRuntimeImpl runtime;
   private final boolean useSnappy;
+  @SuppressWarnings({ "unchecked", "rawtypes" })
+  private final Coalescer<byte[]>[] coalescers = new Coalescer[LANES];
+
+  /**
+   * The pool of serialization buffers.
+   */
+  private final OutputPool outputs;
 
-  // private final Kryo kryo;
 
   /**
    * Initializes the {@link SocketTransport} for this global runtime instance.
@@ -54,14 +93,27 @@ public class SocketTransport extends Transport implements
    * @param compact
    *          reduces thread creation if set
    * @param kryo
-   *          todo
+   *          use kryo serialization if set
    */
   public SocketTransport(GlobalRuntimeImpl runtime, String master,
       String localhost, boolean compact, boolean kryo) {
     super(runtime, master == null ? null : master.split(",")[0], localhost,
         compact, kryo);
     this.runtime = runtime;
-    this.useSnappy = System.getProperty(apgas.impl.Config.APGAS_TRANSPORT_COMPRESSION, "snappy").equals("snappy");
+    final String codec = System
+        .getProperty(Config.APGAS_TRANSPORT_COMPRESSION);
+    if (Compressor.enabled()) {
+      // messages are already compressed by the transport
+      if ("snappy".equals(codec)) {
+        System.err.println("[APGAS] Link compression is incompatible with "
+            + Config.APGAS_COMPRESSION + ". Ignoring.");
+      }
+      useSnappy = false;
+    } else {
+      useSnappy = codec == null || codec.equals("snappy");
+    }
+    outputs = new OutputPool(64, 4096, 1 << 20,
+        Boolean.getBoolean(Config.APGAS_TRANSPORT_DIRECT));
     localTransport = new x10.network.SocketTransport(this);
     if (master == null) {
       localTransport.establishLinks(0, null); // place 0
@@ -76,56 +128,102 @@ public class SocketTransport extends Transport implements
       }
       runtime.updatePlaces(added, new ArrayList<Integer>(0));
     }
-    immediateThreads = Executors.newCachedThreadPool();
-    /*
-     * kryo = new Kryo(); kryo.register(DeadPlaceError.class);
-     * kryo.register(DefaultFinish.class, new JavaSerializer());
-     * kryo.register(Finish.class); kryo.register(GlobalRuntimeImpl.class);
-     * kryo.register(NullFinish.class); kryo.register(ResilientFinish.class);
-     * kryo.register(ResilientFinishOpt.class);
-     * kryo.register(ResilientFinishState.class);
-     * kryo.register(SerializableRunnable.class);
-     * kryo.register(SerializableThrowable.class); kryo.register(Task.class, new
-     * JavaSerializer()); kryo.register(UncountedTask.class);
-     */
+    final int immediates = Math.max(1,
+        Integer.getInteger(Config.APGAS_TRANSPORT_IMMEDIATE_THREADS, 2));
+    immediateThreads = new ThreadPoolExecutor(immediates, immediates, 0L,
+        TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(1024),
+        new ThreadPoolExecutor.CallerRunsPolicy());
+    receivers = new Thread[Math.max(1,
+        Integer.getInteger(Config.APGAS_TRANSPORT_RECEIVERS, 1))];
+    for (int lane = 0; lane < LANES; lane++) {
+      final int l = lane;
+      coalescers[lane] = Coalescer.enabled() ? new Coalescer<>(
+          (place, messages, bytes) -> sendBatch(l, place, messages)) : null;
+    }
   }
 
   @Override
   protected synchronized void start() {
     // super.start();
-    immediateThreads.execute(new Runnable() {
-      @Override
-      public void run() {
-        while (running) {
-          final x10.network.SocketTransport.Message message = localTransport
-              .x10rt_probe(x10.network.SocketTransport.PROBE_TYPE.ALL, true);
-          if (message != null && message.callbackId != -1) {
-            byte[] data;
-            if (message.data.hasArray()) {
-              data = message.data.array();
-            } else {
-              data = new byte[message.data.remaining()];
-              message.data.get(data);
-            }
-            /*
-             * final Input input = new Input(data); final SerializableRunnable f
-             * = (SerializableRunnable) kryo .readClassAndObject(input);
-             */
-
-            try {
-              final ObjectInputStream ois = new ObjectInputStream(
-                  new ByteArrayInputStream(data));
-              final SerializableRunnable f = (SerializableRunnable) ois
-                  .readObject();
-              ois.close();
-              immediateThreads.submit(f);
-            } catch (final Exception e) {
-              e.printStackTrace();
-            }
-          }
-        }
+    for (int i = 0; i < receivers.length; i++) {
+      receivers[i] = new Thread(this::receive, "apgas-receiver-" + i);
+      receivers[i].setDaemon(true);
+      receivers[i].start();
+    }
+  }
+
+  /**
+   * Probes the network for incoming messages until shutdown.
+   * <p>
+   * Each receiving thread deserializes the messages it probes before probing
+   * again, since the probed buffer is only valid until then.
+   */
+  private void receive() {
+    final ByteBufferInput input = new ByteBufferInput();
+    while (running) {
+      final x10.network.SocketTransport.Message message = localTransport
+          .x10rt_probe(x10.network.SocketTransport.PROBE_TYPE.ALL, true);
+      if (message != null && message.callbackId != -1) {
+        receive(message.callbackId == BATCH
+            || message.callbackId == CONTROL_BATCH, message.data, input);
       }
-    });
+    }
+  }
+
+  /**
+   * Dispatches the runnables in a message.
+   *
+   * @param batch
+   *          true if the message is a batch
+   * @param data
+   *          the message
+   * @param input
+   *          the input of the current thread
+   */
+  private void receive(boolean batch, ByteBuffer data, ByteBufferInput input) {
+    if (batch) {
+      final int count = data.getInt();
+      for (int i = 0; i < count; i++) {
+        final int length = data.getInt();
+        final ByteBuffer slice = data.slice();
+        slice.limit(length);
+        receive(slice, input);
+        data.position(data.position() + length);
+      }
+    } else {
+      receive(data.slice(), input);
+    }
+  }
+
+  /**
+   * Deserializes a runnable in place and dispatches it.
+   * <p>
+   * Tasks are submitted directly to the pool of the global runtime. Other
+   * runnables, i.e., immediate messages, run in a bounded thread pool.
+   *
+   * @param data
+   *          the serialized runnable starting at position zero
+   * @param input
+   *          the input of the receiving thread
+   */
+  private void receive(ByteBuffer data, ByteBufferInput input) {
+    final SerializableRunnable f;
+    try {
+      input.setBuffer(data);
+      f = (SerializableRunnable) deserialize(input);
+    } catch (final Exception e) {
+      e.printStackTrace();
+      return;
+    }
+    if (f instanceof ForkJoinTask) {
+      try {
+        f.run();
+      } catch (final Throwable t) {
+        t.printStackTrace();
+      }
+    } else {
+      immediateThreads.execute(f);
+    }
   }
 
   @Override
@@ -148,35 +246,83 @@ public class SocketTransport extends Transport implements
     if (place == here()) {
       f.run();
     } else {
+      final ByteBufferOutput output = outputs.take();
       try {
-        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        final ObjectOutputStream oos = new ObjectOutputStream(baos);
-        oos.writeObject(f);
-        oos.close();
-        final byte[] data = baos.toByteArray();
-        if (localTransport.sendMessage(place, 0, data) != 0) {
+        serialize(place, output, f);
+        // the x10 transport only sends whole arrays
+        final byte[] data = output.toBytes();
+        final int lane = lane(f);
+        if (coalescers[lane] != null) {
+          coalescers[lane].add(place, data, data.length);
+        } else if (localTransport.sendMessage(place,
+            lane == CONTROL ? CONTROL_MESSAGE : MESSAGE, data) != 0) {
           throw new DeadPlaceException(new Place(place));
         }
       } catch (final IOException e) {
-        e.printStackTrace();
+        throw new UncheckedIOException(e);
+      } finally {
+        outputs.release(output);
+      }
+    }
+  }
+
+  /**
+   * Sends a batch of serialized runnables to a place.
+   * <p>
+   * The batch is encoded as a message count followed by length-prefixed
+   * messages. Batches for dead places are dropped.
+   *
+   * @param lane
+   *          the lane of the runnables
+   * @param place
+   *          the destination place
+   * @param messages
+   *          the serialized runnables
+   */
+  private void sendBatch(int lane, int place, List<byte[]> messages) {
+    if (messages.size() == 1) {
+      localTransport.sendMessage(place,
+          lane == CONTROL ? CONTROL_MESSAGE : MESSAGE, messages.get(0));
+      return;
+    }
+    final ByteBufferOutput output = outputs.take();
+    try {
+      output.writeInt(messages.size());
+      for (final byte[] data : messages) {
+        output.writeInt(data.length);
+        output.writeBytes(data);
       }
-      /*
-       * final long freeMem = Runtime.getRuntime().freeMemory(); final Output
-       * output = new Output(4096, freeMem < Integer.MAX_VALUE ? (int) freeMem :
-       * Integer.MAX_VALUE); kryo.writeClassAndObject(output, f); //
-       * org.xerial.snappy.Snappy.compress(output.getBuffer(), arg1);
-       * localTransport.sendMessage(place, 0, output.getBuffer());
-       */
+      localTransport.sendMessage(place,
+          lane == CONTROL ? CONTROL_BATCH : BATCH, output.toBytes());
+    } finally {
+      outputs.release(output);
     }
   }
 
+  @Override
+  protected Coalescer<byte[]> newCoalescer(int lane) {
+    return null; // coalesce serialized messages instead
+  }
+
+  @Override
+  public Coalescer<?> getCoalescer(int lane) {
+    return coalescers[lane];
+  }
+
   @Override
   protected synchronized void shutdown() {
     // super.shutdown();
+    for (final Coalescer<byte[]> coalescer : coalescers) {
+      if (coalescer != null) {
+        coalescer.shutdown();
+      }
+    }
     running = false;
     localTransport.shutdown();
     immediateThreads.shutdown();
-    localTransport.wakeup();
+    for (int i = 0; i < receivers.length; i++) {
+      localTransport.wakeup();
+    }
     hazelcast.shutdown();
   }
 
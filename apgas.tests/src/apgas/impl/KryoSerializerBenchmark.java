@@ -0,0 +1,163 @@
+/*
+ *  This file is part of the X10 project (http://x10-lang.org).
+ *
+ *  This file is licensed to You under the Eclipse Public License (EPL);
+ *  You may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *      http://www.opensource.org/licenses/eclipse-1.0.php
+ *
+ *  (C) Copyright IBM Corporation 2006-2016.
+ */
+
+package apgas.impl;
+
+import static apgas.Constructs.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+
+import apgas.GlobalRuntime;
+import apgas.Job;
+import apgas.SerializableJob;
+import apgas.util.PlaceLocalObject;
+
+/**
+ * The {@link KryoSerializerBenchmark} class measures the cost of a Kryo round
+ * trip for the objects found in most messages: a {@link Task}, a
+ * {@link DefaultFinish}, a reference to a {@link PlaceLocalObject}, and a
+ * two-dimensional primitive array.
+ * <p>
+ * Each object is serialized and deserialized repeatedly by 1 thread, then by
+ * as many threads as there are processors. Run against two builds to compare
+ * serializer implementations. Usage:
+ *
+ * <pre>
+ * java apgas.impl.KryoSerializerBenchmark [seconds per test]
+ * </pre>
+ * <p>
+ * The benchmark ships with the tests rather than the runtime. It shares the
+ * {@code apgas.impl} package to reach the package-private task and finish
+ * classes, so it must run with both projects on the class path.
+ */
+final class KryoSerializerBenchmark {
+  /**
+   * A job that is not a lambda.
+   */
+  static final class Nop implements SerializableJob {
+    private static final long serialVersionUID = -1513651802738315279L;
+
+    @Override
+    public void run() {
+    }
+  }
+
+  /**
+   * A place-local object.
+   */
+  static final class Local extends PlaceLocalObject {
+    private static final long serialVersionUID = -7285808277377885309L;
+  }
+
+  /**
+   * The serialized size of the last object serialized.
+   */
+  private static volatile int size;
+
+  /**
+   * Prevents instantiation.
+   */
+  private KryoSerializerBenchmark() {
+  }
+
+  /**
+   * Serializes and deserializes an object repeatedly.
+   *
+   * @param object
+   *          the object
+   * @param nanos
+   *          the duration of the test
+   * @return the number of round trips
+   */
+  private static long roundTrips(Object object, long nanos) {
+    final Output output = new Output(4096, -1);
+    final long start = System.nanoTime();
+    long count = 0;
+    do {
+      for (int i = 0; i < 1000; i++) {
+        output.clear();
+        KryoSerializer.writeObject(output, object);
+        KryoSerializer.readObject(new Input(output.getBuffer(), 0,
+            output.position()));
+      }
+      count += 1000;
+    } while (System.nanoTime() - start < nanos);
+    size = output.position();
+    return count;
+  }
+
+  /**
+   * Measures the average round trip time for an object.
+   *
+   * @param name
+   *          the name of the object
+   * @param object
+   *          the object
+   * @param threads
+   *          the number of threads
+   * @param nanos
+   *          the duration of the test
+   * @throws InterruptedException
+   *           if interrupted
+   */
+  private static void measure(String name, Object object, int threads,
+      long nanos) throws InterruptedException {
+    final long[] counts = new long[threads];
+    final List<Thread> list = new ArrayList<>();
+    for (int i = 0; i < threads; i++) {
+      final int t = i;
+      final Thread thread = new Thread(
+          () -> counts[t] = roundTrips(object, nanos));
+      thread.start();
+      list.add(thread);
+    }
+    long count = 0;
+    for (int i = 0; i < threads; i++) {
+      list.get(i).join();
+      count += counts[i];
+    }
+    System.out.println(name + ", " + threads + " thread(s): "
+        + (double) nanos * threads / count + " ns per round trip, " + size
+        + " bytes");
+  }
+
+  /**
+   * Runs the benchmark.
+   *
+   * @param args
+   *          the duration of each test in seconds (defaults to 5)
+   * @throws InterruptedException
+   *           if interrupted
+   */
+  public static void main(String[] args) throws InterruptedException {
+    final long nanos = (args.length == 0 ? 5 : Long.parseLong(args[0]))
+        * 1000000000L;
+    GlobalRuntime.getRuntime();
+    final DefaultFinish finish = new DefaultFinish();
+    final Job job = new Nop();
+    final Task task = new Task(finish, job, here().id);
+    final Local local = PlaceLocalObject.make(places(), () -> new Local());
+    final float[][] points = new float[1000][4];
+    final int threads = Runtime.getRuntime().availableProcessors();
+    for (final int n : new int[] { 1, threads }) {
+      measure("warm up", task, n, nanos / 5);
+      measure("Task", task, n, nanos);
+      measure("DefaultFinish", finish, n, nanos);
+      measure("PlaceLocalObject", local, n, nanos);
+      measure("float[1000][4]", points, n, nanos);
+    }
+    System.exit(0);
+  }
+}
@@ -17,6 +17,9 @@ import static org.junit.Assert.*;
 import java.io.IOException;
 import java.io.NotSerializableException;
 import java.io.ObjectInputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.junit.AfterClass;
 import org.junit.BeforeClass;
@@ -27,8 +30,12 @@ import apgas.DeadPlaceException;
 import apgas.GlobalRuntime;
 import apgas.MultipleException;
 import apgas.Place;
+import apgas.impl.Coalescer;
+import apgas.impl.Config;
 import apgas.util.GlobalRef;
 import apgas.util.PlaceLocalArray;
+import apgas.util.PlaceLocalIntArray;
+import apgas.util.RemoteFunction;
 
 @SuppressWarnings("javadoc")
 public class ApgasTest {
@@ -37,6 +44,7 @@ public class ApgasTest {
   public static void setUpBeforeClass() throws Exception {
     System.setProperty(Configuration.APGAS_PLACES, "4");
     // System.setProperty("apgas.serialization", "java");
+    // System.setProperty("apgas.local", "true");
     GlobalRuntime.getRuntime();
   }
 
@@ -98,6 +106,50 @@ public class ApgasTest {
     }
   }
 
+  @Test
+  public void testAsyncCopy() {
+    final int n = 3 * PlaceLocalIntArray.CHUNK + 1;
+    final PlaceLocalIntArray pla = PlaceLocalIntArray.make(places(), n + 1);
+    final int[] src = new int[n];
+    for (int i = 0; i < n; i++) {
+      src[i] = i;
+    }
+    finish(() -> {
+      for (final Place p : places()) {
+        PlaceLocalIntArray.asyncCopy(src, 0, p, pla, 1, n);
+      }
+    });
+    for (final Place p : places()) {
+      assertEquals(at(p, () -> pla.get(0)).intValue(), 0);
+      assertEquals(at(p, () -> pla.get(n)).intValue(), n - 1);
+    }
+  }
+
+  @Test
+  public void testAsyncAtAll() {
+    final GlobalRef<AtomicInteger> ref = new GlobalRef<>(new AtomicInteger());
+    final int[] payload = new int[1000];
+    finish(() -> asyncAtAll(places(), () -> {
+      final int length = payload.length;
+      asyncAt(ref.home(), () -> ref.get().addAndGet(length));
+    }));
+    assertEquals(ref.get().get(), places().size() * payload.length);
+  }
+
+  @Test(timeout = 5000)
+  public void testRemoteFunction() {
+    final GlobalRef<AtomicInteger> ref = new GlobalRef<>(new AtomicInteger());
+    final RemoteFunction<Integer> add = RemoteFunction.register(
+        n -> asyncAt(ref.home(), () -> ref.get().addAndGet(n)));
+    finish(() -> {
+      for (final Place p : places()) {
+        add.asyncAt(p, p.id + 1);
+      }
+    });
+    final int n = places().size();
+    assertEquals(ref.get().get(), n * (n + 1) / 2);
+  }
+
   @Test(expected = IllegalArgumentException.class)
   public void testIllegalArgumentException() {
     place(-1);
@@ -147,6 +199,70 @@ public class ApgasTest {
     assertEquals(fib(10), 55);
   }
 
+  @Test
+  public void testForAsync() {
+    final int a[] = new int[1000];
+    finish(() -> forAsync(0, a.length, 7, i -> a[i] += i));
+    for (int i = 0; i < a.length; i++) {
+      assertEquals(a[i], i);
+    }
+    final int b[][] = new int[30][50];
+    finish(() -> forAsync(0, b.length, 0, b[0].length, (i, j) -> b[i][j]++));
+    for (final int[] row : b) {
+      for (final int x : row) {
+        assertEquals(x, 1);
+      }
+    }
+  }
+
+  @Test
+  public void testCoalescer() throws InterruptedException {
+    final List<String> batches = new ArrayList<>();
+    final Coalescer<Integer> coalescer;
+    System.setProperty(Config.APGAS_COALESCING_COUNT, "4");
+    System.setProperty(Config.APGAS_COALESCING_SIZE, "100");
+    System.setProperty(Config.APGAS_COALESCING_DELAY, "1000");
+    try {
+      coalescer = new Coalescer<>((place, messages, bytes) -> {
+        synchronized (batches) {
+          batches.add(place + ":" + messages + ":" + bytes);
+        }
+      });
+    } finally {
+      System.clearProperty(Config.APGAS_COALESCING_COUNT);
+      System.clearProperty(Config.APGAS_COALESCING_SIZE);
+      System.clearProperty(Config.APGAS_COALESCING_DELAY);
+    }
+    try {
+      for (int i = 0; i < 4; i++) {
+        coalescer.add(1, i, 0);
+      }
+      coalescer.add(2, 4, 60);
+      coalescer.add(2, 5, 60);
+      synchronized (batches) {
+        assertEquals("[1:[0, 1, 2, 3]:0, 2:[4, 5]:120]", batches.toString());
+      }
+      assertEquals(1, coalescer.getCountFlushes());
+      assertEquals(1, coalescer.getSizeFlushes());
+      coalescer.add(3, 6, 10);
+      for (int i = 0; i < 1000; i++) {
+        synchronized (batches) {
+          if (batches.size() > 2) {
+            break;
+          }
+        }
+        Thread.sleep(10);
+      }
+      synchronized (batches) {
+        assertEquals("3:[6]:10", batches.get(2));
+      }
+      assertEquals(1, coalescer.getTimerFlushes());
+      assertEquals(7, coalescer.getMessages());
+    } finally {
+      coalescer.shutdown();
+    }
+  }
+
   @SuppressWarnings("serial")
   @Test(expected = RuntimeException.class)
   public void testSerializationException() throws Throwable {
@@ -0,0 +1,32 @@
+/*
+ *  This file is part of the X10 project (http://x10-lang.org).
+ *
+ *  This file is licensed to You under the Eclipse Public License (EPL);
+ *  You may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *      http://www.opensource.org/licenses/eclipse-1.0.php
+ *
+ *  (C) Copyright IBM Corporation 2006-2016.
+ */
+
+package apgas.tests;
+
+import org.junit.BeforeClass;
+
+import apgas.impl.Config;
+import apgas.impl.NioTransport;
+
+/**
+ * Runs the {@link ApgasTest} tests with the non-blocking socket transport.
+ * <p>
+ * The global runtime is a singleton, so this class must run in its own JVM.
+ */
+@SuppressWarnings("javadoc")
+public class NioTransportTest extends ApgasTest {
+
+  @BeforeClass
+  public static void setUpBeforeClass() throws Exception {
+    System.setProperty(Config.APGAS_TRANSPORT, NioTransport.class.getName());
+    ApgasTest.setUpBeforeClass();
+  }
+}
@@ -0,0 +1,32 @@
+/*
+ *  This file is part of the X10 project (http://x10-lang.org).
+ *
+ *  This file is licensed to You under the Eclipse Public License (EPL);
+ *  You may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *      http://www.opensource.org/licenses/eclipse-1.0.php
+ *
+ *  (C) Copyright IBM Corporation 2006-2016.
+ */
+
+package apgas.tests;
+
+import org.junit.BeforeClass;
+
+import apgas.impl.Config;
+import apgas.impl.ShmTransport;
+
+/**
+ * Runs the {@link ApgasTest} tests with the shared memory transport.
+ * <p>
+ * The global runtime is a singleton, so this class must run in its own JVM.
+ */
+@SuppressWarnings("javadoc")
+public class ShmTransportTest extends ApgasTest {
+
+  @BeforeClass
+  public static void setUpBeforeClass() throws Exception {
+    System.setProperty(Config.APGAS_TRANSPORT, ShmTransport.class.getName());
+    ApgasTest.setUpBeforeClass();
+  }
+}
@@ -12,8 +12,10 @@
 package apgas;
 
 import java.io.Serializable;
+import java.util.Collection;
 import java.util.List;
 import java.util.concurrent.Callable;
+import java.util.function.IntConsumer;
 
 /**
  * The {@link Constructs} class defines the APGAS constructs by means of static
@@ -72,6 +74,99 @@ public final class Constructs {
     GlobalRuntime.getRuntimeImpl().async(f);
   }
 
+  /**
+   * Submits new local tasks to the global runtime to run {@code body} for
+   * each index in {@code [from, to)} and returns immediately.
+   * <p>
+   * Equivalent to {@code for (int i = from; i < to; i++) async(() ->
+   * body.accept(i))} but the range is split recursively into chunks of at
+   * most {@code grain} indices and the enclosing finish only counts chunks.
+   *
+   * @param from
+   *          the first index
+   * @param to
+   *          the upper bound of the range (exclusive)
+   * @param grain
+   *          the maximal number of indices per task, or zero to choose it
+   *          from the number of threads
+   * @param body
+   *          the loop body
+   */
+  public static void forAsync(int from, int to, int grain,
+      IntConsumer body) {
+    GlobalRuntime.getRuntimeImpl().forAsync(from, to, grain, body);
+  }
+
+  /**
+   * Submits new local tasks to the global runtime to run {@code body} for
+   * each index in {@code [from, to)} and returns immediately.
+   * <p>
+   * The grain size is chosen from the number of threads.
+   *
+   * @param from
+   *          the first index
+   * @param to
+   *          the upper bound of the range (exclusive)
+   * @param body
+   *          the loop body
+   * @see #forAsync(int, int, int, IntConsumer)
+   */
+  public static void forAsync(int from, int to, IntConsumer body) {
+    GlobalRuntime.getRuntimeImpl().forAsync(from, to, 0, body);
+  }
+
+  /**
+   * Submits new local tasks to the global runtime to run {@code body} for
+   * each pair of indices in {@code [from0, to0) x [from1, to1)} and returns
+   * immediately.
+   * <p>
+   * The rectangle is split recursively into chunks of at most {@code grain}
+   * pairs of indices and the enclosing finish only counts chunks.
+   *
+   * @param from0
+   *          the first index in the first dimension
+   * @param to0
+   *          the upper bound in the first dimension (exclusive)
+   * @param from1
+   *          the first index in the second dimension
+   * @param to1
+   *          the upper bound in the second dimension (exclusive)
+   * @param grain
+   *          the maximal number of pairs of indices per task, or zero to
+   *          choose it from the number of threads
+   * @param body
+   *          the loop body
+   */
+  public static void forAsync(int from0, int to0, int from1, int to1,
+      int grain, IntBiConsumer body) {
+    GlobalRuntime.getRuntimeImpl().forAsync(from0, to0, from1, to1, grain,
+        body);
+  }
+
+  /**
+   * Submits new local tasks to the global runtime to run {@code body} for
+   * each pair of indices in {@code [from0, to0) x [from1, to1)} and returns
+   * immediately.
+   * <p>
+   * The grain size is chosen from the number of threads.
+   *
+   * @param from0
+   *          the first index in the first dimension
+   * @param to0
+   *          the upper bound in the first dimension (exclusive)
+   * @param from1
+   *          the first index in the second dimension
+   * @param to1
+   *          the upper bound in the second dimension (exclusive)
+   * @param body
+   *          the loop body
+   * @see #forAsync(int, int, int, int, int, IntBiConsumer)
+   */
+  public static void forAsync(int from0, int to0, int from1, int to1,
+      IntBiConsumer body) {
+    GlobalRuntime.getRuntimeImpl().forAsync(from0, to0, from1, to1, 0, body);
+  }
+
   /**
    * Submits a new task to the global runtime to be run at {@link Place}
    * {@code p} with body {@code f} and returns immediately.
@@ -85,6 +180,23 @@ public final class Constructs {
     GlobalRuntime.getRuntimeImpl().asyncAt(p, f);
   }
 
+  /**
+   * Submits new tasks to the global runtime to be run at each {@link Place}
+   * in {@code places} with body {@code f} and returns immediately.
+   * <p>
+   * Equivalent to {@code for (Place p : places) asyncAt(p, f)} but {@code f}
+   * is serialized only once.
+   *
+   * @param places
+   *          the places of execution
+   * @param f
+   *          the function to run
+   */
+  public static void asyncAtAll(Collection<? extends Place> places,
+      SerializableJob f) {
+    GlobalRuntime.getRuntimeImpl().asyncAtAll(places, f);
+  }
+
   /**
    * Submits an uncounted task to the global runtime to be run at {@link Place}
    * {@code p} with body {@code f} and returns immediately. The termination of
@@ -58,11 +58,15 @@ public abstract class GlobalRuntime {
 
   /**
    * Returns the {@link GlobalRuntimeImpl} instance for this place.
+   * <p>
+   * Forces initialization. If multiple places run in this JVM, the instance
+   * depends on the current thread.
    *
    * @return the GlobalRuntimeImpl instance
    */
   static GlobalRuntimeImpl getRuntimeImpl() {
-    return GlobalRuntimeWrapper.runtime;
+    final GlobalRuntimeImpl runtime = GlobalRuntimeImpl.getRuntime();
+    return runtime == null ? GlobalRuntimeWrapper.runtime : runtime;
   }
 
   /**
@@ -0,0 +1,30 @@
+/*
+ *  This file is part of the X10 project (http://x10-lang.org).
+ *
+ *  This file is licensed to You under the Eclipse Public License (EPL);
+ *  You may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *      http://www.opensource.org/licenses/eclipse-1.0.php
+ *
+ *  (C) Copyright IBM Corporation 2006-2016.
+ */
+
+package apgas;
+
+/**
+ * A functional interface with two {@code int} arguments and no return value.
+ * <p>
+ * The functional method is {@link #accept(int, int)}.
+ */
+@FunctionalInterface
+public interface IntBiConsumer {
+  /**
+   * Performs this operation on the given arguments.
+   *
+   * @param i
+   *          the first argument
+   * @param j
+   *          the second argument
+   */
+  public void accept(int i, int j);
+}
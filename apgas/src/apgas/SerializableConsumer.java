@@ -0,0 +1,36 @@
+/*
+ *  This file is part of the X10 project (http://x10-lang.org).
+ *
+ *  This file is licensed to You under the Eclipse Public License (EPL);
+ *  You may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *      http://www.opensource.org/licenses/eclipse-1.0.php
+ *
+ *  (C) Copyright IBM Corporation 2006-2016.
+ */
+
+package apgas;
+
+import java.io.Serializable;
+
+/**
+ * A generic serializable functional interface with one argument and no return
+ * value.
+ * <p>
+ * The functional method is {@link #accept(Object)}.
+ *
+ * @param <T>
+ *          the type of the argument
+ */
+@FunctionalInterface
+public interface SerializableConsumer<T> extends Serializable {
+  /**
+   * Performs this operation on the given argument.
+   *
+   * @param t
+   *          the argument
+   * @throws Exception
+   *           if the operation fails
+   */
+  public void accept(T t) throws Exception;
+}
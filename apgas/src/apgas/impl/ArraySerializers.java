@@ -0,0 +1,546 @@
+/*
+ *  This file is part of the X10 project (http://x10-lang.org).
+ *
+ *  This file is licensed to You under the Eclipse Public License (EPL);
+ *  You may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *      http://www.opensource.org/licenses/eclipse-1.0.php
+ *
+ *  (C) Copyright IBM Corporation 2006-2016.
+ */
+
+package apgas.impl;
+
+import java.lang.reflect.Array;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.Serializer;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+
+/**
+ * The {@link ArraySerializers} class implements Kryo serializers that copy
+ * primitive arrays and byte buffers in bulk.
+ * <p>
+ * The elements of an array are written as a contiguous block of bytes in the
+ * native byte order of the sender, preceded by the byte order. The receiver
+ * only swaps bytes if its native byte order differs. A two-dimensional array
+ * is written as a table of row lengths followed by the elements of all the
+ * rows as a single block. Rows shared between several arrays or occurring
+ * twice in the same array are copied, not shared, on the receiving side.
+ * <p>
+ * Byte buffers, heap or direct, are written from their position to their
+ * limit, and read back into a buffer of the same kind with the same byte
+ * order.
+ * <p>
+ * A Kryo instance is confined to one thread at a time, so the serializers
+ * registered with a Kryo instance share one staging buffer.
+ */
+final class ArraySerializers {
+  /**
+   * The size of the staging buffer.
+   */
+  private static final int SCRATCH_SIZE = 8192;
+
+  /**
+   * The byte order of this JVM encoded as a byte.
+   */
+  private static final byte NATIVE = order(ByteOrder.nativeOrder());
+
+  /**
+   * The int element type.
+   */
+  private static final Primitive<int[]> INT = new Primitive<int[]>(4) {
+    @Override
+    int length(int[] array) {
+      return array.length;
+    }
+
+    @Override
+    int[] newArray(int length) {
+      return new int[length];
+    }
+
+    @Override
+    void put(ByteBuffer buffer, int[] array, int offset, int count) {
+      buffer.asIntBuffer().put(array, offset, count);
+    }
+
+    @Override
+    void get(ByteBuffer buffer, int[] array, int offset, int count) {
+      buffer.asIntBuffer().get(array, offset, count);
+    }
+  };
+
+  /**
+   * The long element type.
+   */
+  private static final Primitive<long[]> LONG = new Primitive<long[]>(8) {
+    @Override
+    int length(long[] array) {
+      return array.length;
+    }
+
+    @Override
+    long[] newArray(int length) {
+      return new long[length];
+    }
+
+    @Override
+    void put(ByteBuffer buffer, long[] array, int offset, int count) {
+      buffer.asLongBuffer().put(array, offset, count);
+    }
+
+    @Override
+    void get(ByteBuffer buffer, long[] array, int offset, int count) {
+      buffer.asLongBuffer().get(array, offset, count);
+    }
+  };
+
+  /**
+   * The short element type.
+   */
+  private static final Primitive<short[]> SHORT = new Primitive<short[]>(2) {
+    @Override
+    int length(short[] array) {
+      return array.length;
+    }
+
+    @Override
+    short[] newArray(int length) {
+      return new short[length];
+    }
+
+    @Override
+    void put(ByteBuffer buffer, short[] array, int offset, int count) {
+      buffer.asShortBuffer().put(array, offset, count);
+    }
+
+    @Override
+    void get(ByteBuffer buffer, short[] array, int offset, int count) {
+      buffer.asShortBuffer().get(array, offset, count);
+    }
+  };
+
+  /**
+   * The char element type.
+   */
+  private static final Primitive<char[]> CHAR = new Primitive<char[]>(2) {
+    @Override
+    int length(char[] array) {
+      return array.length;
+    }
+
+    @Override
+    char[] newArray(int length) {
+      return new char[length];
+    }
+
+    @Override
+    void put(ByteBuffer buffer, char[] array, int offset, int count) {
+      buffer.asCharBuffer().put(array, offset, count);
+    }
+
+    @Override
+    void get(ByteBuffer buffer, char[] array, int offset, int count) {
+      buffer.asCharBuffer().get(array, offset, count);
+    }
+  };
+
+  /**
+   * The float element type.
+   */
+  private static final Primitive<float[]> FLOAT = new Primitive<float[]>(4) {
+    @Override
+    int length(float[] array) {
+      return array.length;
+    }
+
+    @Override
+    float[] newArray(int length) {
+      return new float[length];
+    }
+
+    @Override
+    void put(ByteBuffer buffer, float[] array, int offset, int count) {
+      buffer.asFloatBuffer().put(array, offset, count);
+    }
+
+    @Override
+    void get(ByteBuffer buffer, float[] array, int offset, int count) {
+      buffer.asFloatBuffer().get(array, offset, count);
+    }
+  };
+
+  /**
+   * The double element type.
+   */
+  private static final Primitive<double[]> DOUBLE = new Primitive<double[]>(
+      8) {
+    @Override
+    int length(double[] array) {
+      return array.length;
+    }
+
+    @Override
+    double[] newArray(int length) {
+      return new double[length];
+    }
+
+    @Override
+    void put(ByteBuffer buffer, double[] array, int offset, int count) {
+      buffer.asDoubleBuffer().put(array, offset, count);
+    }
+
+    @Override
+    void get(ByteBuffer buffer, double[] array, int offset, int count) {
+      buffer.asDoubleBuffer().get(array, offset, count);
+    }
+  };
+
+  /**
+   * A primitive array type.
+   *
+   * @param <T>
+   *          the array type
+   */
+  private abstract static class Primitive<T> {
+    /**
+     * The size of an element in bytes.
+     */
+    final int size;
+
+    /**
+     * Constructs a primitive array type.
+     *
+     * @param size
+     *          the size of an element in bytes
+     */
+    Primitive(int size) {
+      this.size = size;
+    }
+
+    /**
+     * Returns the length of an array.
+     *
+     * @param array
+     *          the array
+     * @return the length
+     */
+    abstract int length(T array);
+
+    /**
+     * Allocates an array.
+     *
+     * @param length
+     *          the length
+     * @return the array
+     */
+    abstract T newArray(int length);
+
+    /**
+     * Copies elements of an array to a buffer starting at its position.
+     *
+     * @param buffer
+     *          the buffer
+     * @param array
+     *          the array
+     * @param offset
+     *          the index of the first element
+     * @param count
+     *          the number of elements
+     */
+    abstract void put(ByteBuffer buffer, T array, int offset, int count);
+
+    /**
+     * Copies elements from a buffer starting at its position to an array.
+     *
+     * @param buffer
+     *          the buffer
+     * @param array
+     *          the array
+     * @param offset
+     *          the index of the first element
+     * @param count
+     *          the number of elements
+     */
+    abstract void get(ByteBuffer buffer, T array, int offset, int count);
+  }
+
+  /**
+   * The staging buffer.
+   */
+  private final ByteBuffer scratch = ByteBuffer.allocate(SCRATCH_SIZE);
+
+  /**
+   * Prevents instantiation except by {@link #register(Kryo)}.
+   */
+  private ArraySerializers() {
+  }
+
+  /**
+   * Registers the bulk serializers with a Kryo instance.
+   *
+   * @param kryo
+   *          the Kryo instance
+   */
+  static void register(Kryo kryo) {
+    final ArraySerializers serializers = new ArraySerializers();
+    kryo.register(int[].class, serializers.new Vector<>(INT));
+    kryo.register(long[].class, serializers.new Vector<>(LONG));
+    kryo.register(short[].class, serializers.new Vector<>(SHORT));
+    kryo.register(char[].class, serializers.new Vector<>(CHAR));
+    kryo.register(float[].class, serializers.new Vector<>(FLOAT));
+    kryo.register(double[].class, serializers.new Vector<>(DOUBLE));
+    kryo.register(int[][].class, serializers.new Matrix<>(INT));
+    kryo.register(long[][].class, serializers.new Matrix<>(LONG));
+    kryo.register(float[][].class, serializers.new Matrix<>(FLOAT));
+    kryo.register(double[][].class, serializers.new Matrix<>(DOUBLE));
+    kryo.addDefaultSerializer(ByteBuffer.class, serializers.new Buffer());
+  }
+
+  /**
+   * Encodes a byte order as a byte.
+   *
+   * @param order
+   *          the byte order
+   * @return 1 if big endian, 0 otherwise
+   */
+  private static byte order(ByteOrder order) {
+    return (byte) (order == ByteOrder.BIG_ENDIAN ? 1 : 0);
+  }
+
+  /**
+   * Decodes a byte order.
+   *
+   * @param order
+   *          the encoded byte order
+   * @return the byte order
+   */
+  private static ByteOrder order(byte order) {
+    return order == 0 ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN;
+  }
+
+  /**
+   * Appends the elements of an array to the staging buffer, writing the
+   * staging buffer to the output whenever it is full.
+   *
+   * @param output
+   *          the Kryo output
+   * @param type
+   *          the array type
+   * @param array
+   *          the array
+   */
+  private <T> void append(Output output, Primitive<T> type, T array) {
+    final int length = type.length(array);
+    int offset = 0;
+    while (offset < length) {
+      if (scratch.remaining() < type.size) {
+        flush(output);
+      }
+      final int count = Math.min(length - offset,
+          scratch.remaining() / type.size);
+      type.put(scratch, array, offset, count);
+      scratch.position(scratch.position() + count * type.size);
+      offset += count;
+    }
+  }
+
+  /**
+   * Writes the staging buffer to the output and clears it.
+   *
+   * @param output
+   *          the Kryo output
+   */
+  private void flush(Output output) {
+    output.writeBytes(scratch.array(), 0, scratch.position());
+    scratch.clear();
+  }
+
+  /**
+   * Reads the elements of an array.
+   *
+   * @param input
+   *          the Kryo input
+   * @param type
+   *          the array type
+   * @param array
+   *          the array
+   */
+  private <T> void fill(Input input, Primitive<T> type, T array) {
+    final int length = type.length(array);
+    int offset = 0;
+    while (offset < length) {
+      final int count = Math.min(length - offset, SCRATCH_SIZE / type.size);
+      input.readBytes(scratch.array(), 0, count * type.size);
+      scratch.clear();
+      type.get(scratch, array, offset, count);
+      offset += count;
+    }
+  }
+
+  /**
+   * Serializes a one-dimensional primitive array.
+   *
+   * @param <T>
+   *          the array type
+   */
+  private final class Vector<T> extends Serializer<T> {
+    /**
+     * The array type.
+     */
+    private final Primitive<T> type;
+
+    /**
+     * Constructs a serializer.
+     *
+     * @param type
+     *          the array type
+     */
+    Vector(Primitive<T> type) {
+      this.type = type;
+    }
+
+    @Override
+    public void write(Kryo kryo, Output output, T array) {
+      output.writeVarInt(type.length(array), true);
+      output.writeByte(NATIVE);
+      scratch.clear();
+      scratch.order(ByteOrder.nativeOrder());
+      append(output, type, array);
+      flush(output);
+    }
+
+    @Override
+    public T read(Kryo kryo, Input input, Class<T> c) {
+      final T array = type.newArray(input.readVarInt(true));
+      scratch.order(order(input.readByte()));
+      fill(input, type, array);
+      return array;
+    }
+  }
+
+  /**
+   * Serializes a two-dimensional primitive array, possibly jagged.
+   *
+   * @param <T>
+   *          the type of a row
+   */
+  private final class Matrix<T> extends Serializer<T[]> {
+    /**
+     * The type of a row.
+     */
+    private final Primitive<T> type;
+
+    /**
+     * Constructs a serializer.
+     *
+     * @param type
+     *          the type of a row
+     */
+    Matrix(Primitive<T> type) {
+      this.type = type;
+    }
+
+    @Override
+    public void write(Kryo kryo, Output output, T[] matrix) {
+      output.writeVarInt(matrix.length, true);
+      output.writeByte(NATIVE);
+      for (final T row : matrix) {
+        output.writeVarInt(row == null ? 0 : type.length(row) + 1, true);
+      }
+      scratch.clear();
+      scratch.order(ByteOrder.nativeOrder());
+      for (final T row : matrix) {
+        if (row != null) {
+          append(output, type, row);
+        }
+      }
+      flush(output);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public T[] read(Kryo kryo, Input input, Class<T[]> c) {
+      final T[] matrix = (T[]) Array.newInstance(c.getComponentType(),
+          input.readVarInt(true));
+      scratch.order(order(input.readByte()));
+      for (int i = 0; i < matrix.length; i++) {
+        final int length = input.readVarInt(true);
+        matrix[i] = length == 0 ? null : type.newArray(length - 1);
+      }
+      for (final T row : matrix) {
+        if (row != null) {
+          fill(input, type, row);
+        }
+      }
+      return matrix;
+    }
+  }
+
+  /**
+   * Serializes the remaining bytes of a heap or direct byte buffer.
+   */
+  private final class Buffer extends Serializer<ByteBuffer> {
+    /**
+     * The flag of a direct buffer.
+     */
+    private static final int DIRECT = 1;
+
+    /**
+     * The flag of a read-only buffer.
+     */
+    private static final int READ_ONLY = 2;
+
+    /**
+     * The flag of a big-endian buffer.
+     */
+    private static final int BIG_ENDIAN = 4;
+
+    @Override
+    public void write(Kryo kryo, Output output, ByteBuffer buffer) {
+      output.writeByte((buffer.isDirect() ? DIRECT : 0)
+          | (buffer.isReadOnly() ? READ_ONLY : 0)
+          | (buffer.order() == ByteOrder.BIG_ENDIAN ? BIG_ENDIAN : 0));
+      output.writeVarInt(buffer.remaining(), true);
+      if (buffer.hasArray()) {
+        output.writeBytes(buffer.array(),
+            buffer.arrayOffset() + buffer.position(), buffer.remaining());
+        return;
+      }
+      final ByteBuffer source = buffer.duplicate();
+      while (source.hasRemaining()) {
+        final int count = Math.min(source.remaining(), SCRATCH_SIZE);
+        source.get(scratch.array(), 0, count);
+        output.writeBytes(scratch.array(), 0, count);
+      }
+    }
+
+    @Override
+    public ByteBuffer read(Kryo kryo, Input input, Class<ByteBuffer> c) {
+      final int flags = input.readByte();
+      final int length = input.readVarInt(true);
+      ByteBuffer buffer;
+      if ((flags & DIRECT) == 0) {
+        buffer = ByteBuffer.allocate(length);
+        input.readBytes(buffer.array(), 0, length);
+      } else {
+        buffer = ByteBuffer.allocateDirect(length);
+        while (buffer.hasRemaining()) {
+          final int count = Math.min(buffer.remaining(), SCRATCH_SIZE);
+          input.readBytes(scratch.array(), 0, count);
+          buffer.put(scratch.array(), 0, count);
+        }
+        buffer.flip();
+      }
+      if ((flags & READ_ONLY) != 0) {
+        buffer = buffer.asReadOnlyBuffer();
+      }
+      return buffer.order((flags & BIG_ENDIAN) != 0 ? ByteOrder.BIG_ENDIAN
+          : ByteOrder.LITTLE_ENDIAN);
+    }
+  }
+}
@@ -0,0 +1,55 @@
+/*
+ *  This file is part of the X10 project (http://x10-lang.org).
+ *
+ *  This file is licensed to You under the Eclipse Public License (EPL);
+ *  You may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *      http://www.opensource.org/licenses/eclipse-1.0.php
+ *
+ *  (C) Copyright IBM Corporation 2006-2016.
+ */
+
+package apgas.impl;
+
+import java.util.List;
+
+/**
+ * The {@link Batch} class represents a batch of active messages for the same
+ * destination place.
+ */
+final class Batch implements SerializableRunnable {
+  private static final long serialVersionUID = -1617253738329934806L;
+
+  /**
+   * The batched messages.
+   */
+  private final SerializableRunnable[] messages;
+
+  /**
+   * Constructs a new {@link Batch}.
+   *
+   * @param messages
+   *          the messages to batch
+   */
+  Batch(List<SerializableRunnable> messages) {
+    this.messages = messages.toArray(new SerializableRunnable[messages.size()]);
+  }
+
+  /**
+   * Runs the batched messages in order.
+   * <p>
+   * Tasks are only submitted to the pool, so the receiving thread is not held
+   * for long.
+   */
+  @Override
+  public void run() {
+    for (final SerializableRunnable message : messages) {
+      try {
+        message.run();
+      } catch (final Throwable t) {
+        // as if the message had been sent alone, do not drop the others
+        t.printStackTrace();
+      }
+    }
+  }
+}
@@ -0,0 +1,182 @@
+/*
+ *  This file is part of the X10 project (http://x10-lang.org).
+ *
+ *  This file is licensed to You under the Eclipse Public License (EPL);
+ *  You may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *      http://www.opensource.org/licenses/eclipse-1.0.php
+ *
+ *  (C) Copyright IBM Corporation 2006-2016.
+ */
+
+package apgas.impl;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The {@link ClassRegistry} class assigns cluster-wide IDs to the classes
+ * serialized with Kryo so that messages carry small class IDs instead of
+ * class names.
+ * <p>
+ * IDs are assigned on first use by claiming the next free slot of a shared
+ * ID-to-name map, then publishing the ID in a shared name-to-ID map. Both
+ * maps are distributed Hazelcast maps, so places that join late, e.g., spare
+ * places, see the same IDs. Without Hazelcast, e.g., for places running in a
+ * single JVM, the maps are local to the JVM. Entries are never removed, so a
+ * class ID never changes meaning. Two places racing to register the same
+ * class may claim two IDs for it. Both remain valid.
+ * <p>
+ * Place 0 registers the classes listed in
+ * {@link Config#APGAS_SERIALIZATION_CLASSES} at startup.
+ */
+final class ClassRegistry {
+  /**
+   * The Kryo registration ID of the class with cluster-wide ID 0. Lower IDs
+   * are reserved for the classes registered explicitly by
+   * {@link KryoSerializer}, which checks that they fit.
+   */
+  static final int BASE = 64;
+
+  /**
+   * The name of the Hazelcast map of IDs indexed by class name.
+   */
+  static final String IDS = "apgas:classIds";
+
+  /**
+   * The name of the Hazelcast map of class names indexed by ID.
+   */
+  static final String NAMES = "apgas:classNames";
+
+  /**
+   * The registry of this JVM.
+   */
+  private static volatile ClassRegistry registry = new ClassRegistry(
+      new ConcurrentHashMap<>(), new ConcurrentHashMap<>());
+
+  /**
+   * The shared map of IDs indexed by class name.
+   */
+  private final Map<String, Integer> ids;
+
+  /**
+   * The shared map of class names indexed by ID.
+   */
+  private final Map<Integer, String> names;
+
+  /**
+   * The IDs known to this JVM indexed by class name.
+   */
+  private final Map<String, Integer> knownIds = new ConcurrentHashMap<>();
+
+  /**
+   * The class names known to this JVM indexed by ID.
+   */
+  private final Map<Integer, String> knownNames = new ConcurrentHashMap<>();
+
+  /**
+   * A lower bound on the next free ID.
+   */
+  private final AtomicInteger next = new AtomicInteger();
+
+  /**
+   * Constructs a {@link ClassRegistry}.
+   *
+   * @param ids
+   *          the shared map of IDs indexed by class name
+   * @param names
+   *          the shared map of class names indexed by ID
+   */
+  ClassRegistry(Map<String, Integer> ids, Map<Integer, String> names) {
+    this.ids = ids;
+    this.names = names;
+  }
+
+  /**
+   * Returns the registry of this JVM.
+   *
+   * @return the registry
+   */
+  static ClassRegistry get() {
+    return registry;
+  }
+
+  /**
+   * Replaces the registry of this JVM.
+   * <p>
+   * Must be invoked before this JVM serializes or deserializes any object.
+   *
+   * @param registry
+   *          the new registry
+   */
+  static void install(ClassRegistry registry) {
+    ClassRegistry.registry = registry;
+  }
+
+  /**
+   * Returns the ID of a class, assigning one if necessary.
+   *
+   * @param name
+   *          the class name
+   * @return the ID or -1 if the shared maps are not available
+   */
+  int id(String name) {
+    Integer id = knownIds.get(name);
+    if (id != null) {
+      return id;
+    }
+    try {
+      id = ids.get(name);
+      if (id == null) {
+        int candidate = Math.max(next.get(), names.size());
+        while (names.putIfAbsent(candidate, name) != null) {
+          ++candidate;
+        }
+        next.accumulateAndGet(candidate + 1, Math::max);
+        final Integer existing = ids.putIfAbsent(name, candidate);
+        id = existing == null ? candidate : existing;
+      }
+    } catch (final RuntimeException e) {
+      return -1; // shutting down, fall back to class names
+    }
+    knownIds.put(name, id);
+    knownNames.put(id, name);
+    return id;
+  }
+
+  /**
+   * Returns the name of the class with the given ID.
+   *
+   * @param id
+   *          the ID
+   * @return the class name or null if unknown
+   */
+  String name(int id) {
+    String name = knownNames.get(id);
+    if (name == null) {
+      name = names.get(id);
+      if (name != null) {
+        knownNames.put(id, name);
+      }
+    }
+    return name;
+  }
+
+  /**
+   * Registers the classes listed in {@link Config#APGAS_SERIALIZATION_CLASSES}
+   * if any.
+   */
+  void registerConfiguredClasses() {
+    final String classes = System
+        .getProperty(Config.APGAS_SERIALIZATION_CLASSES);
+    if (classes == null) {
+      return;
+    }
+    for (final String name : classes.split(",")) {
+      if (!name.trim().isEmpty()) {
+        id(name.trim());
+      }
+    }
+  }
+}
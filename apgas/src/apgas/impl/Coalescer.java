@@ -0,0 +1,386 @@
+/*
+ *  This file is part of the X10 project (http://x10-lang.org).
+ *
+ *  This file is licensed to You under the Eclipse Public License (EPL);
+ *  You may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *      http://www.opensource.org/licenses/eclipse-1.0.php
+ *
+ *  (C) Copyright IBM Corporation 2006-2016.
+ */
+
+package apgas.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The {@link Coalescer} class buffers outgoing messages per destination place
+ * and hands them over to the transport in batches.
+ * <p>
+ * A batch is flushed when it reaches {@link Config#APGAS_COALESCING_COUNT}
+ * messages, {@link Config#APGAS_COALESCING_SIZE} bytes, or when its first
+ * message has been waiting for {@link Config#APGAS_COALESCING_DELAY}
+ * microseconds.
+ *
+ * @param <T>
+ *          the type of the messages
+ */
+public final class Coalescer<T> {
+  /**
+   * The {@link Sink} interface is implemented by transports to send batches.
+   *
+   * @param <T>
+   *          the type of the messages
+   */
+  @FunctionalInterface
+  public interface Sink<T> {
+    /**
+     * Sends a batch of messages to a place.
+     *
+     * @param place
+     *          the destination place
+     * @param messages
+     *          the messages in the order they were buffered
+     * @param bytes
+     *          the total size of the messages in bytes if known or zero
+     */
+    void flush(int place, List<T> messages, int bytes);
+  }
+
+  /**
+   * The buffer for a destination place.
+   *
+   * @param <T>
+   *          the type of the messages
+   */
+  private static final class Buffer<T> {
+    /**
+     * The buffered messages.
+     */
+    private ArrayList<T> messages = new ArrayList<>();
+
+    /**
+     * The size of the buffered messages in bytes.
+     */
+    private int bytes;
+
+    /**
+     * The time of arrival of the first buffered message.
+     */
+    private long first;
+  }
+
+  /**
+   * The maximum number of messages per batch.
+   */
+  private final int count;
+
+  /**
+   * The maximum size of a batch in bytes.
+   */
+  private final int size;
+
+  /**
+   * The maximum delay in nanoseconds.
+   */
+  private final long delay;
+
+  /**
+   * The sink for the batches.
+   */
+  private final Sink<T> sink;
+
+  /**
+   * The buffers indexed by place ID.
+   */
+  private volatile Buffer<T>[] buffers;
+
+  /**
+   * The number of non-empty buffers.
+   */
+  private final AtomicInteger pending = new AtomicInteger();
+
+  /**
+   * The thread flushing batches on timeout.
+   */
+  private final Thread timer;
+
+  /**
+   * False once shutdown is initiated.
+   */
+  private volatile boolean running = true;
+
+  /**
+   * The number of buffered messages.
+   */
+  private final AtomicLong messages = new AtomicLong();
+
+  /**
+   * The number of batches flushed because of the message count.
+   */
+  private final AtomicLong countFlushes = new AtomicLong();
+
+  /**
+   * The number of batches flushed because of the batch size.
+   */
+  private final AtomicLong sizeFlushes = new AtomicLong();
+
+  /**
+   * The number of batches flushed on timeout.
+   */
+  private final AtomicLong timerFlushes = new AtomicLong();
+
+  /**
+   * The number of batches flushed by calls to {@link #flush()}.
+   */
+  private final AtomicLong explicitFlushes = new AtomicLong();
+
+  /**
+   * Constructs a {@link Coalescer} configured from the system properties.
+   *
+   * @param sink
+   *          the sink for the batches
+   */
+  @SuppressWarnings("unchecked")
+  public Coalescer(Sink<T> sink) {
+    count = Math.max(1, Integer.getInteger(Config.APGAS_COALESCING_COUNT, 64));
+    size = Math.max(1,
+        Integer.getInteger(Config.APGAS_COALESCING_SIZE, 64 * 1024));
+    delay = 1000L
+        * Math.max(1, Integer.getInteger(Config.APGAS_COALESCING_DELAY, 50));
+    this.sink = sink;
+    buffers = (Buffer<T>[]) new Buffer<?>[0];
+    timer = new Thread(this::timeout, "apgas-coalescer");
+    timer.setDaemon(true);
+    timer.start();
+  }
+
+  /**
+   * Returns true if message coalescing is enabled.
+   *
+   * @return the value of the {@link Config#APGAS_COALESCING} property
+   */
+  public static boolean enabled() {
+    return Boolean.getBoolean(Config.APGAS_COALESCING);
+  }
+
+  /**
+   * Buffers a message for the given place, flushing the buffer if full.
+   *
+   * @param place
+   *          the destination place
+   * @param message
+   *          the message
+   * @param bytes
+   *          the size of the message in bytes if known or zero
+   */
+  public void add(int place, T message, int bytes) {
+    messages.incrementAndGet();
+    final Buffer<T> buffer = buffer(place);
+    List<T> batch = null;
+    int batchBytes = 0;
+    synchronized (buffer) {
+      if (buffer.messages.isEmpty()) {
+        buffer.first = System.nanoTime();
+        if (pending.getAndIncrement() == 0) {
+          LockSupport.unpark(timer);
+        }
+      }
+      buffer.messages.add(message);
+      buffer.bytes += bytes;
+      if (buffer.messages.size() >= count) {
+        countFlushes.incrementAndGet();
+        batchBytes = buffer.bytes;
+        batch = take(buffer);
+      } else if (buffer.bytes >= size) {
+        sizeFlushes.incrementAndGet();
+        batchBytes = buffer.bytes;
+        batch = take(buffer);
+      }
+    }
+    if (batch != null) {
+      sink.flush(place, batch, batchBytes);
+    }
+  }
+
+  /**
+   * Flushes all the buffers.
+   */
+  public void flush() {
+    final Buffer<T>[] buffers = this.buffers;
+    for (int place = 0; place < buffers.length; place++) {
+      final Buffer<T> buffer = buffers[place];
+      if (buffer == null) {
+        continue;
+      }
+      List<T> batch = null;
+      int batchBytes = 0;
+      synchronized (buffer) {
+        if (!buffer.messages.isEmpty()) {
+          explicitFlushes.incrementAndGet();
+          batchBytes = buffer.bytes;
+          batch = take(buffer);
+        }
+      }
+      if (batch != null) {
+        sink.flush(place, batch, batchBytes);
+      }
+    }
+  }
+
+  /**
+   * Flushes all the buffers and stops the timer thread.
+   */
+  public void shutdown() {
+    running = false;
+    LockSupport.unpark(timer);
+    flush();
+  }
+
+  /**
+   * Returns the number of messages submitted to this {@link Coalescer}.
+   *
+   * @return a message count
+   */
+  public long getMessages() {
+    return messages.get();
+  }
+
+  /**
+   * Returns the number of batches flushed because of the message count.
+   *
+   * @return a batch count
+   */
+  public long getCountFlushes() {
+    return countFlushes.get();
+  }
+
+  /**
+   * Returns the number of batches flushed because of the batch size.
+   *
+   * @return a batch count
+   */
+  public long getSizeFlushes() {
+    return sizeFlushes.get();
+  }
+
+  /**
+   * Returns the number of batches flushed on timeout.
+   *
+   * @return a batch count
+   */
+  public long getTimerFlushes() {
+    return timerFlushes.get();
+  }
+
+  /**
+   * Returns the number of batches flushed explicitly, e.g., on shutdown.
+   *
+   * @return a batch count
+   */
+  public long getExplicitFlushes() {
+    return explicitFlushes.get();
+  }
+
+  /**
+   * Returns the total number of batches flushed.
+   *
+   * @return a batch count
+   */
+  public long getBatches() {
+    return countFlushes.get() + sizeFlushes.get() + timerFlushes.get()
+        + explicitFlushes.get();
+  }
+
+  @Override
+  public String toString() {
+    final long batches = getBatches();
+    return "messages: " + getMessages() + ", batches: " + batches
+        + " (count: " + getCountFlushes() + ", size: " + getSizeFlushes()
+        + ", timer: " + getTimerFlushes() + ", explicit: "
+        + getExplicitFlushes() + "), average batch: "
+        + (batches == 0 ? 0 : (double) getMessages() / batches);
+  }
+
+  /**
+   * Returns the buffer for the given place, allocating it if necessary.
+   *
+   * @param place
+   *          a place ID
+   * @return the buffer
+   */
+  private Buffer<T> buffer(int place) {
+    final Buffer<T>[] buffers = this.buffers;
+    if (place < buffers.length && buffers[place] != null) {
+      return buffers[place];
+    }
+    synchronized (this) {
+      Buffer<T>[] tmp = this.buffers;
+      if (place >= tmp.length) {
+        tmp = Arrays.copyOf(tmp, Math.max(place + 1, 2 * tmp.length));
+      }
+      if (tmp[place] == null) {
+        tmp[place] = new Buffer<>();
+      }
+      this.buffers = tmp;
+      return tmp[place];
+    }
+  }
+
+  /**
+   * Empties a buffer. Must be called while holding the buffer's lock.
+   *
+   * @param buffer
+   *          a non-empty buffer
+   * @return the buffered messages
+   */
+  private List<T> take(Buffer<T> buffer) {
+    final List<T> batch = buffer.messages;
+    buffer.messages = new ArrayList<>(batch.size());
+    buffer.bytes = 0;
+    pending.decrementAndGet();
+    return batch;
+  }
+
+  /**
+   * Flushes the buffers that have been waiting for too long.
+   */
+  private void timeout() {
+    while (running) {
+      if (pending.get() == 0) {
+        LockSupport.park(this);
+        continue;
+      }
+      LockSupport.parkNanos(delay);
+      final long now = System.nanoTime();
+      final Buffer<T>[] buffers = this.buffers;
+      for (int place = 0; place < buffers.length; place++) {
+        final Buffer<T> buffer = buffers[place];
+        if (buffer == null) {
+          continue;
+        }
+        List<T> batch = null;
+        int batchBytes = 0;
+        synchronized (buffer) {
+          if (!buffer.messages.isEmpty() && now - buffer.first >= delay) {
+            timerFlushes.incrementAndGet();
+            batchBytes = buffer.bytes;
+            batch = take(buffer);
+          }
+        }
+        if (batch != null) {
+          try {
+            sink.flush(place, batch, batchBytes);
+          } catch (final Throwable t) {
+            // the sink reports failures, keep the timer alive
+          }
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,71 @@
+/*
+ *  This file is part of the X10 project (http://x10-lang.org).
+ *
+ *  This file is licensed to You under the Eclipse Public License (EPL);
+ *  You may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *      http://www.opensource.org/licenses/eclipse-1.0.php
+ *
+ *  (C) Copyright IBM Corporation 2006-2016.
+ */
+
+package apgas.impl;
+
+import java.io.UncheckedIOException;
+import java.io.IOException;
+
+import com.esotericsoftware.kryo.io.Input;
+
+/**
+ * The {@link CompressedMessage} class represents a serialized active message,
+ * compressed or not.
+ * <p>
+ * The wrapped message is deserialized and run when this message is run.
+ */
+final class CompressedMessage implements SerializableRunnable {
+  private static final long serialVersionUID = -4412339569024426787L;
+
+  /**
+   * The possibly compressed serialized message.
+   */
+  private final byte[] data;
+
+  /**
+   * The length of the serialized message before compression or -1 if not
+   * compressed.
+   */
+  private final int length;
+
+  /**
+   * Constructs a new {@link CompressedMessage}.
+   *
+   * @param data
+   *          the possibly compressed serialized message
+   * @param length
+   *          the length of the serialized message before compression or -1 if
+   *          not compressed
+   */
+  CompressedMessage(byte[] data, int length) {
+    this.data = data;
+    this.length = length;
+  }
+
+  /**
+   * Deserializes and runs the wrapped message.
+   */
+  @Override
+  public void run() {
+    final SerializableRunnable f;
+    try {
+      final byte[] bytes = length < 0 ? data
+          : Compressor.decompress(data, length);
+      f = (SerializableRunnable) GlobalRuntimeImpl.getRuntime().transport
+          .deserialize(new Input(bytes));
+    } catch (final IOException e) {
+      throw new UncheckedIOException(e);
+    } catch (final ClassNotFoundException e) {
+      throw new RuntimeException(e);
+    }
+    f.run();
+  }
+}
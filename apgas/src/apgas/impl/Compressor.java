@@ -0,0 +1,438 @@
+/*
+ *  This file is part of the X10 project (http://x10-lang.org).
+ *
+ *  This file is licensed to You under the Eclipse Public License (EPL);
+ *  You may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *      http://www.opensource.org/licenses/eclipse-1.0.php
+ *
+ *  (C) Copyright IBM Corporation 2006-2016.
+ */
+
+package apgas.impl;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * The {@link Compressor} class compresses serialized messages on their way
+ * to remote places.
+ * <p>
+ * Messages smaller than {@link Config#APGAS_COMPRESSION_THRESHOLD} bytes are
+ * never compressed. The compression ratio and time are recorded per
+ * destination place. If the compressed size of the last
+ * {@link #WINDOW} messages to a place exceeds
+ * {@link Config#APGAS_COMPRESSION_RATIO} times their original size,
+ * compression is turned off for the next {@link #BACKOFF} messages to this
+ * place.
+ */
+public final class Compressor {
+  /**
+   * The {@link Codec} interface is implemented by compression algorithms.
+   * <p>
+   * Implementations must be thread-safe and have a public no-argument
+   * constructor.
+   */
+  public interface Codec {
+    /**
+     * Compresses a byte range.
+     *
+     * @param src
+     *          the source array
+     * @param offset
+     *          the offset of the range
+     * @param length
+     *          the length of the range
+     * @return the compressed bytes or null if not smaller than the range
+     */
+    byte[] compress(byte[] src, int offset, int length);
+
+    /**
+     * Decompresses bytes.
+     *
+     * @param src
+     *          the compressed bytes
+     * @param dst
+     *          the destination array, exactly as long as the original range
+     * @throws IOException
+     *           if the compressed bytes are corrupt
+     */
+    void decompress(byte[] src, byte[] dst) throws IOException;
+  }
+
+  /**
+   * A {@link Codec} implementation using the fastest deflate level.
+   */
+  public static final class DeflateCodec implements Codec {
+    /**
+     * The deflater of the current thread.
+     */
+    private final ThreadLocal<Deflater> deflater = ThreadLocal
+        .withInitial(() -> new Deflater(Deflater.BEST_SPEED));
+
+    /**
+     * The inflater of the current thread.
+     */
+    private final ThreadLocal<Inflater> inflater = ThreadLocal
+        .withInitial(Inflater::new);
+
+    @Override
+    public byte[] compress(byte[] src, int offset, int length) {
+      final Deflater deflater = this.deflater.get();
+      deflater.reset();
+      deflater.setInput(src, offset, length);
+      deflater.finish();
+      final byte[] dst = new byte[length];
+      int count = 0;
+      while (!deflater.finished()) {
+        if (count == dst.length) {
+          return null;
+        }
+        count += deflater.deflate(dst, count, dst.length - count);
+      }
+      return count < length ? Arrays.copyOf(dst, count) : null;
+    }
+
+    @Override
+    public void decompress(byte[] src, byte[] dst) throws IOException {
+      final Inflater inflater = this.inflater.get();
+      inflater.reset();
+      inflater.setInput(src);
+      try {
+        int count = 0;
+        while (count < dst.length) {
+          final int n = inflater.inflate(dst, count, dst.length - count);
+          if (n == 0 && (inflater.finished() || inflater.needsInput())) {
+            throw new IOException("Truncated compressed message");
+          }
+          count += n;
+        }
+      } catch (final DataFormatException e) {
+        throw new IOException(e);
+      }
+    }
+  }
+
+  /**
+   * The compression statistics for a destination place.
+   */
+  private static final class Stats {
+    /**
+     * The number of messages above the threshold.
+     */
+    private long messages;
+
+    /**
+     * The number of compressed messages.
+     */
+    private long compressed;
+
+    /**
+     * The original size of the messages submitted to the codec.
+     */
+    private long bytesIn;
+
+    /**
+     * The compressed size of the messages submitted to the codec.
+     */
+    private long bytesOut;
+
+    /**
+     * The time spent in the codec in nanoseconds.
+     */
+    private long nanos;
+
+    /**
+     * The number of times compression was turned off.
+     */
+    private long backoffs;
+
+    /**
+     * The original size of the messages in the current window.
+     */
+    private long windowIn;
+
+    /**
+     * The compressed size of the messages in the current window.
+     */
+    private long windowOut;
+
+    /**
+     * The number of messages in the current window.
+     */
+    private int window;
+
+    /**
+     * The number of messages to skip before compressing again.
+     */
+    private int skip;
+  }
+
+  /**
+   * The number of messages per evaluation window.
+   */
+  public static final int WINDOW = 16;
+
+  /**
+   * The number of messages sent uncompressed after a bad window.
+   */
+  public static final int BACKOFF = 1024;
+
+  /**
+   * The codec.
+   */
+  private static final Codec codec = newCodec();
+
+  /**
+   * The minimal size of a compressed message.
+   */
+  private final int threshold;
+
+  /**
+   * The maximal compression ratio worth keeping compression on.
+   */
+  private final double ratio;
+
+  /**
+   * The statistics indexed by destination place ID.
+   */
+  private final Map<Integer, Stats> stats = new ConcurrentHashMap<>();
+
+  /**
+   * Constructs a {@link Compressor} configured from the system properties.
+   */
+  public Compressor() {
+    threshold = Integer.getInteger(Config.APGAS_COMPRESSION_THRESHOLD, 4096);
+    double ratio = 0.9;
+    try {
+      ratio = Double.parseDouble(
+          System.getProperty(Config.APGAS_COMPRESSION_RATIO, "0.9"));
+    } catch (final NumberFormatException e) {
+      System.err.println("[APGAS] Invalid compression ratio: "
+          + System.getProperty(Config.APGAS_COMPRESSION_RATIO)
+          + ". Using default ratio.");
+    }
+    this.ratio = ratio;
+  }
+
+  /**
+   * Returns true if message compression is enabled.
+   *
+   * @return the value of the {@link Config#APGAS_COMPRESSION} property
+   */
+  public static boolean enabled() {
+    return Boolean.getBoolean(Config.APGAS_COMPRESSION);
+  }
+
+  /**
+   * Instantiates the configured codec.
+   *
+   * @return the codec
+   */
+  private static Codec newCodec() {
+    final String name = System.getProperty(Config.APGAS_COMPRESSION_CODEC);
+    if (name != null) {
+      try {
+        return (Codec) Class.forName(name).getDeclaredConstructor()
+            .newInstance();
+      } catch (ReflectiveOperationException | ExceptionInInitializerError
+          | NoClassDefFoundError | ClassCastException e) {
+        System.err.println("[APGAS] Unable to instantiate compression codec: "
+            + name + ". Using default codec.");
+      }
+    }
+    return new DeflateCodec();
+  }
+
+  /**
+   * Returns true if a message of the given length is large enough to be
+   * compressed.
+   *
+   * @param length
+   *          the length of the serialized message
+   * @return true if not below the compression threshold
+   */
+  boolean accepts(int length) {
+    return length >= threshold;
+  }
+
+  /**
+   * Compresses a serialized message for a place if large enough and if
+   * compression pays off for this place.
+   *
+   * @param place
+   *          the destination place
+   * @param bytes
+   *          the array holding the serialized message
+   * @param offset
+   *          the offset of the message
+   * @param length
+   *          the length of the message
+   * @return the compressed message or null if not compressed
+   */
+  CompressedMessage compress(int place, byte[] bytes, int offset,
+      int length) {
+    if (length < threshold) {
+      return null;
+    }
+    final Stats stats = this.stats.computeIfAbsent(place, p -> new Stats());
+    synchronized (stats) {
+      stats.messages++;
+      if (stats.skip > 0) {
+        stats.skip--;
+        return null;
+      }
+    }
+    final long start = System.nanoTime();
+    final byte[] data = codec.compress(bytes, offset, length);
+    final long time = System.nanoTime() - start;
+    final int size = data == null ? length : data.length;
+    synchronized (stats) {
+      stats.bytesIn += length;
+      stats.bytesOut += size;
+      stats.nanos += time;
+      stats.windowIn += length;
+      stats.windowOut += size;
+      if (++stats.window == WINDOW) {
+        if (stats.windowOut > ratio * stats.windowIn) {
+          stats.skip = BACKOFF;
+          stats.backoffs++;
+        }
+        stats.window = 0;
+        stats.windowIn = 0;
+        stats.windowOut = 0;
+      }
+      if (data == null) {
+        return null;
+      }
+      stats.compressed++;
+    }
+    return new CompressedMessage(data, length);
+  }
+
+  /**
+   * Decompresses a message.
+   *
+   * @param data
+   *          the compressed bytes
+   * @param length
+   *          the original length
+   * @return the original bytes
+   * @throws IOException
+   *           if the compressed bytes are corrupt
+   */
+  static byte[] decompress(byte[] data, int length) throws IOException {
+    final byte[] bytes = new byte[length];
+    codec.decompress(data, bytes);
+    return bytes;
+  }
+
+  /**
+   * Returns the number of messages to a place above the size threshold.
+   *
+   * @param place
+   *          a place ID
+   * @return a message count
+   */
+  public long getMessages(int place) {
+    final Stats stats = this.stats.get(place);
+    if (stats == null) {
+      return 0;
+    }
+    synchronized (stats) {
+      return stats.messages;
+    }
+  }
+
+  /**
+   * Returns the number of compressed messages sent to a place.
+   *
+   * @param place
+   *          a place ID
+   * @return a message count
+   */
+  public long getCompressedMessages(int place) {
+    final Stats stats = this.stats.get(place);
+    if (stats == null) {
+      return 0;
+    }
+    synchronized (stats) {
+      return stats.compressed;
+    }
+  }
+
+  /**
+   * Returns the ratio of compressed to original sizes of the messages to a
+   * place submitted to the codec.
+   *
+   * @param place
+   *          a place ID
+   * @return the compression ratio or 1 if no message was submitted
+   */
+  public double getRatio(int place) {
+    final Stats stats = this.stats.get(place);
+    if (stats == null) {
+      return 1;
+    }
+    synchronized (stats) {
+      return stats.bytesIn == 0 ? 1 : (double) stats.bytesOut / stats.bytesIn;
+    }
+  }
+
+  /**
+   * Returns the time spent compressing messages to a place.
+   *
+   * @param place
+   *          a place ID
+   * @return a duration in nanoseconds
+   */
+  public long getNanos(int place) {
+    final Stats stats = this.stats.get(place);
+    if (stats == null) {
+      return 0;
+    }
+    synchronized (stats) {
+      return stats.nanos;
+    }
+  }
+
+  /**
+   * Returns the number of times compression was turned off for a place.
+   *
+   * @param place
+   *          a place ID
+   * @return a count
+   */
+  public long getBackoffs(int place) {
+    final Stats stats = this.stats.get(place);
+    if (stats == null) {
+      return 0;
+    }
+    synchronized (stats) {
+      return stats.backoffs;
+    }
+  }
+
+  @Override
+  public String toString() {
+    final StringBuilder builder = new StringBuilder();
+    for (final int place : new TreeMap<>(stats).keySet()) {
+      if (builder.length() > 0) {
+        builder.append('\n');
+      }
+      builder.append("place ").append(place).append(": messages: ")
+          .append(getMessages(place)).append(", compressed: ")
+          .append(getCompressedMessages(place)).append(", ratio: ")
+          .append(getRatio(place)).append(", time: ")
+          .append(getNanos(place) / 1e6).append(" ms, backoffs: ")
+          .append(getBackoffs(place));
+    }
+    return builder.toString();
+  }
+}
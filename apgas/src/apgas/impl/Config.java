@@ -26,8 +26,9 @@ public final class Config {
    * Name of the network transport class implementation to instantiate (String
    * property).
    * <p>
-   * Currently "{@code apgas.impl.Transport}" and "
-   * {@code apgas.sockets.SocketTransport}" are supported. Defaults to "
+   * Currently "{@code apgas.impl.Transport}", "
+   * {@code apgas.impl.NioTransport}", "{@code apgas.impl.ShmTransport}",
+   * and "{@code apgas.sockets.SocketTransport}" are supported. Defaults to "
    * {@code apgas.impl.Transport}".
    *
    */
@@ -37,18 +38,155 @@ public final class Config {
    * Enables or disables compression on the network links when using transport "
    * {@code apgas.sockets.SocketTransport}".
    * <p>
-   * Set to "none" or "snappy", which is the default.
+   * Set to "none" or "snappy", which is the default unless
+   * {@link #APGAS_COMPRESSION} is set. The two options are mutually
+   * exclusive.
    */
   public static final String APGAS_TRANSPORT_COMPRESSION = "apgas.transport.compression";
 
   /**
-   * Upper bound on the number of persistent threads in the thread pool (Integer
+   * Allocates serialization buffers off-heap in transports that manage their
+   * own buffers, e.g., "{@code apgas.sockets.SocketTransport}" (Boolean
    * property).
    * <p>
-   * Defaults to 256.
+   * Defaults to false, except for "{@code apgas.impl.NioTransport}".
+   */
+  public static final String APGAS_TRANSPORT_DIRECT = "apgas.transport.direct";
+
+  /**
+   * Number of threads receiving and deserializing messages in transports that
+   * support it, e.g., "{@code apgas.sockets.SocketTransport}" (Integer
+   * property).
+   * <p>
+   * Defaults to 1.
+   */
+  public static final String APGAS_TRANSPORT_RECEIVERS = "apgas.transport.receivers";
+
+  /**
+   * Number of threads running immediate messages in transports that support
+   * it, e.g., "{@code apgas.sockets.SocketTransport}" and "
+   * {@code apgas.impl.NioTransport}" (Integer property).
+   * <p>
+   * Defaults to 2.
+   */
+  public static final String APGAS_TRANSPORT_IMMEDIATE_THREADS = "apgas.transport.immediate.threads";
+
+  /**
+   * Directory for the shared-memory ring buffers of transport "
+   * {@code apgas.impl.ShmTransport}".
+   * <p>
+   * Defaults to "/dev/shm".
+   */
+  public static final String APGAS_TRANSPORT_SHM_DIR = "apgas.transport.shm.dir";
+
+  /**
+   * Capacity in bytes of each shared-memory ring buffer of transport "
+   * {@code apgas.impl.ShmTransport}" (Integer property). Rounded down to a
+   * power of two.
+   * <p>
+   * Defaults to 4194304.
+   */
+  public static final String APGAS_TRANSPORT_SHM_SIZE = "apgas.transport.shm.size";
+
+  /**
+   * Enables the coalescing of outgoing messages per destination place
+   * (Boolean property).
+   * <p>
+   * Defaults to false.
+   */
+  public static final String APGAS_COALESCING = "apgas.coalescing";
+
+  /**
+   * Maximum number of messages in a coalesced batch (Integer property).
+   * <p>
+   * Defaults to 64.
+   */
+  public static final String APGAS_COALESCING_COUNT = "apgas.coalescing.count";
+
+  /**
+   * Maximum size in bytes of a coalesced batch if the transport can estimate
+   * message sizes (Integer property).
+   * <p>
+   * Defaults to 65536.
+   */
+  public static final String APGAS_COALESCING_SIZE = "apgas.coalescing.size";
+
+  /**
+   * Maximum delay in microseconds before a coalesced batch is flushed (Integer
+   * property).
+   * <p>
+   * Defaults to 50.
+   */
+  public static final String APGAS_COALESCING_DELAY = "apgas.coalescing.delay";
+
+  /**
+   * Enables the compression of large outgoing messages (Boolean property).
+   * <p>
+   * Applies to the Hazelcast transport and the transports that serialize
+   * messages themselves. Turns off {@link #APGAS_TRANSPORT_COMPRESSION}.
+   * Defaults to false.
+   */
+  public static final String APGAS_COMPRESSION = "apgas.compression";
+
+  /**
+   * Minimal size in bytes of a serialized message to be compressed (Integer
+   * property).
+   * <p>
+   * Defaults to 4096.
+   */
+  public static final String APGAS_COMPRESSION_THRESHOLD = "apgas.compression.threshold";
+
+  /**
+   * Compression ratio above which compression is temporarily turned off for a
+   * destination place (Double property).
+   * <p>
+   * Defaults to 0.9.
+   */
+  public static final String APGAS_COMPRESSION_RATIO = "apgas.compression.ratio";
+
+  /**
+   * Name of the compression codec class to instantiate (String property).
+   * <p>
+   * Defaults to "{@code apgas.impl.Compressor$DeflateCodec}".
+   */
+  public static final String APGAS_COMPRESSION_CODEC = "apgas.compression.codec";
+
+  /**
+   * Maximum number of tasks sent by a place to another place that have not
+   * started running yet (Integer property).
+   * <p>
+   * A place spawning more tasks blocks until the destination catches up.
+   * Defaults to 0, i.e., no flow control.
+   */
+  public static final String APGAS_FLOW_WINDOW = "apgas.flow.window";
+
+  /**
+   * Upper bound on the number of threads in the thread pool, including the
+   * threads compensating for blocked threads (Integer property).
+   * <p>
+   * Defaults to 256. Not enforced on Java 8.
    */
   public static final String APGAS_MAX_THREADS = "apgas.max.threads";
 
+  /**
+   * Name of the task scheduler (String property).
+   * <p>
+   * Defaults to "forkjoin", i.e., tasks run in a fork/join pool of worker
+   * threads. If set to "virtual", each task runs in its own virtual thread on
+   * Java 21 or later.
+   */
+  public static final String APGAS_SCHEDULER = "apgas.scheduler";
+
+  /**
+   * Runs a local async in the current task if the current worker has more
+   * than this number of surplus tasks queued (Integer property).
+   * <p>
+   * The async body then runs before the async returns, which may deadlock
+   * programs that rely on the concurrency of asyncs. Defaults to 0, i.e.,
+   * asyncs are never inlined.
+   */
+  public static final String APGAS_INLINE_THRESHOLD = "apgas.inline.threshold";
+
   /**
    * Reduces the number of threads used by Hazelcast if set (Boolean property).
    */
@@ -63,6 +201,44 @@ public final class Config {
    */
   public static final String APGAS_SERIALIZATION = "apgas.serialization";
 
+  /**
+   * Comma-separated list of the classes place 0 registers with Kryo at
+   * startup (String property).
+   * <p>
+   * Other classes are registered cluster-wide when first serialized. Either
+   * way, messages carry compact class IDs instead of class names.
+   */
+  public static final String APGAS_SERIALIZATION_CLASSES = "apgas.serialization.classes";
+
+  /**
+   * Fraction of the serialization events to profile (Double property).
+   * <p>
+   * If positive, serialized sizes and times are recorded per class by
+   * {@link SerializationProfiler} and printed at shutdown. Defaults to 0.
+   */
+  public static final String APGAS_SERIALIZATION_PROFILE = "apgas.serialization.profile";
+
+  /**
+   * Comma-separated list of the {@link apgas.util.Externalizer} classes to
+   * instantiate (String property).
+   * <p>
+   * Objects of the types handled by these externalizers are serialized by
+   * the externalizers with any serialization framework and transport. The
+   * list must be the same at all places. The runtime fails to start if one of
+   * the classes cannot be instantiated.
+   */
+  public static final String APGAS_SERIALIZATION_EXTERNALIZERS = "apgas.serialization.externalizers";
+
+  /**
+   * Serializes the jobs of remote tasks separately from the tasks so that
+   * they are deserialized by the workers running the tasks instead of the
+   * transport threads (Boolean property).
+   * <p>
+   * Each job is then serialized into a separate buffer and copied into the
+   * message. Defaults to false.
+   */
+  public static final String APGAS_SERIALIZATION_LAZY = "apgas.serialization.lazy";
+
   /**
    * Specifies the java command to run for spawning places (String property).
    * <p>
@@ -84,4 +260,27 @@ public final class Config {
    * Defaults to "{@code apgas.impl.SShLauncher}".
    */
   public static final String APGAS_LAUNCHER = "apgas.launcher";
+
+  /**
+   * Runs all the places in this JVM if set (Boolean property).
+   * <p>
+   * Each place has its own thread pool. Places are connected by an in-memory
+   * transport. Not supported in resilient mode. Defaults to false.
+   */
+  public static final String APGAS_LOCAL = "apgas.local";
+
+  /**
+   * Serializes the jobs of the tasks sent between places running in the same
+   * JVM (Boolean property).
+   * <p>
+   * If false, jobs are shared between places instead of copied, i.e., the
+   * objects they capture are the same instances at all places. Jobs that
+   * capture place-local objects, directly or through captured lambdas, are
+   * still serialized so that the objects resolve to the instances of the
+   * destination place. Place-local objects nested in other captured objects
+   * are shared too and silently refer to the instance of the sending place.
+   * Finish objects and other messages are always serialized. Defaults to
+   * true.
+   */
+  public static final String APGAS_LOCAL_SERIALIZATION = "apgas.local.serialization";
 }
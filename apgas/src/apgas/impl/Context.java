@@ -0,0 +1,79 @@
+/*
+ *  This file is part of the X10 project (http://x10-lang.org).
+ *
+ *  This file is licensed to You under the Eclipse Public License (EPL);
+ *  You may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *      http://www.opensource.org/licenses/eclipse-1.0.php
+ *
+ *  (C) Copyright IBM Corporation 2006-2016.
+ */
+
+package apgas.impl;
+
+/**
+ * The {@link Context} class tracks the global runtime instance and the
+ * current task of a thread running tasks.
+ * <p>
+ * A {@link Worker} carries its context in a field. Other threads, i.e., the
+ * virtual threads of a virtual {@link Scheduler}, use a thread-local variable.
+ */
+final class Context {
+  /**
+   * The contexts of threads that are not workers.
+   */
+  private static final ThreadLocal<Context> local = new ThreadLocal<>();
+
+  /**
+   * The global runtime instance the thread belongs to.
+   */
+  final GlobalRuntimeImpl runtime;
+
+  /**
+   * True if the thread is a {@link Worker} and may fork tasks.
+   */
+  final boolean worker;
+
+  /**
+   * The current task.
+   */
+  Task task;
+
+  /**
+   * The number of nested finishes running other tasks while waiting.
+   */
+  int depth;
+
+  /**
+   * Constructs a context.
+   *
+   * @param runtime
+   *          the global runtime instance the thread belongs to
+   * @param worker
+   *          true if the thread is a {@link Worker}
+   */
+  Context(GlobalRuntimeImpl runtime, boolean worker) {
+    this.runtime = runtime;
+    this.worker = worker;
+  }
+
+  /**
+   * Returns the context of the current thread.
+   *
+   * @return the context or null if the current thread does not run tasks
+   */
+  static Context current() {
+    final Thread t = Thread.currentThread();
+    return t instanceof Worker ? ((Worker) t).context : local.get();
+  }
+
+  /**
+   * Attaches a new context to the current thread.
+   *
+   * @param runtime
+   *          the global runtime instance the thread belongs to
+   */
+  static void enter(GlobalRuntimeImpl runtime) {
+    local.set(new Context(runtime, false));
+  }
+}
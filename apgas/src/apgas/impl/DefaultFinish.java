@@ -15,6 +15,7 @@ import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.locks.LockSupport;
 
 import apgas.SerializableJob;
 import apgas.util.GlobalID;
@@ -87,6 +88,11 @@ final class DefaultFinish implements Serializable, Finish {
    */
   private transient List<Throwable> exceptions;
 
+  /**
+   * The virtual thread parked waiting for this finish to terminate if any.
+   */
+  private transient Thread waiter;
+
   /**
    * Constructs a finish instance.
    */
@@ -95,6 +101,28 @@ final class DefaultFinish implements Serializable, Finish {
     spawn(here);
   }
 
+  /**
+   * Allocates a finish instance for the given ID without counting the finish
+   * body.
+   *
+   * @param id
+   *          the global ID of the finish
+   */
+  private DefaultFinish(GlobalID id) {
+    this.id = id;
+  }
+
+  /**
+   * Returns the finish object with the given global ID at this place.
+   *
+   * @param id
+   *          the global ID of the finish
+   * @return the finish object
+   */
+  static DefaultFinish resolve(GlobalID id) {
+    return (DefaultFinish) new DefaultFinish(id).readResolve();
+  }
+
   @Override
   public synchronized void submit(int p) {
     final int here = GlobalRuntimeImpl.getRuntime().here;
@@ -172,7 +200,7 @@ final class DefaultFinish implements Serializable, Finish {
         }
       }
       if (--count == 0) {
-        notifyAll();
+        wakeUp();
       }
     } else {
       // remote finish
@@ -207,7 +235,7 @@ final class DefaultFinish implements Serializable, Finish {
       }
     }
     if (count == 0) {
-      notifyAll();
+      wakeUp();
     }
   }
 
@@ -222,12 +250,15 @@ final class DefaultFinish implements Serializable, Finish {
       exceptions.add(exception);
     } else {
       // remote finish: spawn remote task to transfer exception to root finish
+      // the finish of the task resolves to the root finish at home, even if
+      // the job itself is not serialized
       final SerializableThrowable t = new SerializableThrowable(exception);
-      final DefaultFinish that = this;
       spawn(id.home.id);
-      new Task(this, (SerializableJob) () -> {
-        that.addSuppressed(t.t);
-      }, here).asyncAt(id.home.id);
+      final Task task = new Task(this, (SerializableJob) () -> {
+        Context.current().task.finish.addSuppressed(t.t);
+      }, here);
+      task.control = true;
+      task.asyncAt(id.home.id);
     }
   }
 
@@ -242,14 +273,40 @@ final class DefaultFinish implements Serializable, Finish {
   }
 
   @Override
-  public synchronized boolean block() {
-    while (count != 0) {
-      try {
-        wait();
-      } catch (final InterruptedException e) {
+  public boolean block() {
+    final Context context = Context.current();
+    if (context != null && !context.worker) {
+      // park instead of waiting so the virtual thread releases its carrier
+      synchronized (this) {
+        waiter = Thread.currentThread();
+      }
+      while (!isReleasable()) {
+        LockSupport.park(this);
+      }
+      synchronized (this) {
+        waiter = null;
       }
+      return true;
+    }
+    synchronized (this) {
+      while (count != 0) {
+        try {
+          wait();
+        } catch (final InterruptedException e) {
+        }
+      }
+      return count == 0;
+    }
+  }
+
+  /**
+   * Wakes up the threads waiting for this finish to terminate.
+   */
+  private void wakeUp() {
+    notifyAll();
+    if (waiter != null) {
+      LockSupport.unpark(waiter);
     }
-    return count == 0;
   }
 
   /**
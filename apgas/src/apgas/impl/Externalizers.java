@@ -0,0 +1,501 @@
+/*
+ *  This file is part of the X10 project (http://x10-lang.org).
+ *
+ *  This file is licensed to You under the Eclipse Public License (EPL);
+ *  You may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *      http://www.opensource.org/licenses/eclipse-1.0.php
+ *
+ *  (C) Copyright IBM Corporation 2006-2016.
+ */
+
+package apgas.impl;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidObjectException;
+import java.io.ObjectInput;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutput;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.KryoException;
+import com.esotericsoftware.kryo.Serializer;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+import com.hazelcast.config.SerializerConfig;
+import com.hazelcast.config.SerializationConfig;
+import com.hazelcast.nio.ObjectDataInput;
+import com.hazelcast.nio.ObjectDataOutput;
+import com.hazelcast.nio.serialization.StreamSerializer;
+
+import apgas.util.Externalizer;
+
+/**
+ * The {@link Externalizers} class plugs the {@link Externalizer} instances
+ * listed in {@link Config#APGAS_SERIALIZATION_EXTERNALIZERS} into Kryo, Java
+ * serialization, and Hazelcast.
+ * <p>
+ * With Kryo, an externalizer replaces the default serializer of its type.
+ * With Java serialization, objects of an externalized type are replaced in
+ * the stream by an {@link Externalized} wrapper. Hazelcast is configured to
+ * use the externalizers for the objects it serializes itself, e.g., the
+ * values of distributed maps.
+ */
+final class Externalizers {
+  /**
+   * The Hazelcast type ID of the first externalizer.
+   */
+  private static final int TYPE_ID = 100;
+
+  /**
+   * The externalizers in configuration order.
+   */
+  private static final List<Externalizer<?>> list = load();
+
+  /**
+   * The externalizers indexed by externalized type.
+   */
+  private static final Map<Class<?>, Externalizer<?>> map = index(list);
+
+  /**
+   * Prevents instantiation.
+   */
+  private Externalizers() {
+  }
+
+  /**
+   * Instantiates the configured externalizers.
+   * <p>
+   * Externalizers are identified by their position in the list, so a
+   * misconfigured externalizer is fatal rather than skipped: skipping it
+   * would shift the type IDs of the externalizers that follow it.
+   *
+   * @return the externalizers
+   * @throws IllegalArgumentException
+   *           if an externalizer cannot be instantiated
+   */
+  private static List<Externalizer<?>> load() {
+    final String names = System
+        .getProperty(Config.APGAS_SERIALIZATION_EXTERNALIZERS);
+    if (names == null) {
+      return Collections.emptyList();
+    }
+    final List<Externalizer<?>> list = new ArrayList<>();
+    for (final String name : names.split(",")) {
+      if (name.trim().isEmpty()) {
+        continue;
+      }
+      try {
+        // checked exceptions thrown by the constructor are wrapped in an
+        // InvocationTargetException rather than tunneled to the caller
+        list.add((Externalizer<?>) Class.forName(name.trim())
+            .getDeclaredConstructor().newInstance());
+      } catch (ReflectiveOperationException | ExceptionInInitializerError
+          | NoClassDefFoundError | ClassCastException e) {
+        throw new IllegalArgumentException(
+            "Unable to instantiate externalizer: " + name.trim(), e);
+      }
+    }
+    return Collections.unmodifiableList(list);
+  }
+
+  /**
+   * Indexes externalizers by externalized type.
+   *
+   * @param list
+   *          the externalizers
+   * @return the map
+   */
+  private static Map<Class<?>, Externalizer<?>> index(
+      List<Externalizer<?>> list) {
+    final Map<Class<?>, Externalizer<?>> map = new HashMap<>();
+    for (final Externalizer<?> externalizer : list) {
+      map.put(externalizer.type(), externalizer);
+    }
+    return map;
+  }
+
+  /**
+   * Returns true if externalizers are configured.
+   *
+   * @return true if at least one externalizer is configured
+   */
+  static boolean enabled() {
+    return !list.isEmpty();
+  }
+
+  /**
+   * Returns the externalizer for a type.
+   *
+   * @param type
+   *          the type
+   * @return the externalizer or null if none
+   */
+  static Externalizer<?> get(Class<?> type) {
+    return map.isEmpty() ? null : map.get(type);
+  }
+
+  /**
+   * Returns the externalizer for a class name.
+   *
+   * @param name
+   *          the class name
+   * @return the externalizer
+   * @throws InvalidObjectException
+   *           if there is no externalizer for this class name
+   */
+  private static Externalizer<?> get(String name)
+      throws InvalidObjectException {
+    for (final Externalizer<?> externalizer : list) {
+      if (externalizer.type().getName().equals(name)) {
+        return externalizer;
+      }
+    }
+    throw new InvalidObjectException("No externalizer for class " + name);
+  }
+
+  /**
+   * Writes an object using an externalizer.
+   *
+   * @param externalizer
+   *          the externalizer
+   * @param out
+   *          the output
+   * @param object
+   *          the object
+   * @throws IOException
+   *           if I/O errors occur
+   */
+  @SuppressWarnings("unchecked")
+  private static <T> void write(Externalizer<T> externalizer, ObjectOutput out,
+      Object object) throws IOException {
+    externalizer.write(out, (T) object);
+  }
+
+  /**
+   * Returns a Java object output stream that uses the externalizers.
+   *
+   * @param out
+   *          the underlying output stream
+   * @return the object output stream
+   * @throws IOException
+   *           if I/O errors occur
+   */
+  static ObjectOutputStream newObjectOutputStream(OutputStream out)
+      throws IOException {
+    if (!enabled()) {
+      return new ObjectOutputStream(out);
+    }
+    return new ObjectOutputStream(out) {
+      {
+        enableReplaceObject(true);
+      }
+
+      @Override
+      protected Object replaceObject(Object object) {
+        final Externalizer<?> externalizer = object == null ? null
+            : get(object.getClass());
+        return externalizer == null ? object
+            : new Externalized(externalizer, object);
+      }
+    };
+  }
+
+  /**
+   * Returns a Kryo serializer for a type if the type is externalized.
+   *
+   * @param type
+   *          the type to serialize
+   * @return the Kryo serializer for this type or null if none
+   */
+  static Serializer<?> kryoSerializer(Class<?> type) {
+    final Externalizer<?> externalizer = get(type);
+    return externalizer == null ? null : new KryoAdapter(externalizer);
+  }
+
+  /**
+   * Registers the externalizers with Hazelcast.
+   * <p>
+   * With Java serialization, Hazelcast is also configured to serialize the
+   * messages of the runtime with a stream that uses the externalizers.
+   *
+   * @param config
+   *          the Hazelcast serialization configuration
+   * @param kryo
+   *          true if Kryo serializes the messages of the runtime
+   */
+  static void configure(SerializationConfig config, boolean kryo) {
+    if (!enabled()) {
+      return;
+    }
+    if (!kryo) {
+      config.addSerializerConfig(
+          new SerializerConfig().setTypeClass(SerializableRunnable.class)
+              .setImplementation(new JavaAdapter()));
+    }
+    for (int i = 0; i < list.size(); i++) {
+      config.addSerializerConfig(
+          new SerializerConfig().setTypeClass(list.get(i).type())
+              .setImplementation(new HazelcastAdapter(list.get(i),
+                  TYPE_ID + i)));
+    }
+  }
+
+  /**
+   * Stands for an externalized object in a Java serialization stream.
+   */
+  static final class Externalized implements Externalizable {
+    private static final long serialVersionUID = -2402432930167009342L;
+
+    /**
+     * The externalizer.
+     */
+    private Externalizer<?> externalizer;
+
+    /**
+     * The externalized object.
+     */
+    private Object object;
+
+    /**
+     * Constructs an empty wrapper for deserialization.
+     */
+    public Externalized() {
+    }
+
+    /**
+     * Wraps an object.
+     *
+     * @param externalizer
+     *          the externalizer for the object
+     * @param object
+     *          the object
+     */
+    Externalized(Externalizer<?> externalizer, Object object) {
+      this.externalizer = externalizer;
+      this.object = object;
+    }
+
+    @Override
+    public void writeExternal(ObjectOutput out) throws IOException {
+      out.writeUTF(externalizer.type().getName());
+      write(externalizer, out, object);
+    }
+
+    @Override
+    public void readExternal(ObjectInput in)
+        throws IOException, ClassNotFoundException {
+      externalizer = get(in.readUTF());
+      object = externalizer.read(in);
+    }
+
+    /**
+     * Returns the externalized object.
+     *
+     * @return the object
+     * @throws ObjectStreamException
+     *           never
+     */
+    private Object readResolve() throws ObjectStreamException {
+      return object;
+    }
+  }
+
+  /**
+   * An {@link ObjectOutput} backed by a stream. Subclasses write nested
+   * objects.
+   */
+  private abstract static class DataObjectOutput extends DataOutputStream
+      implements ObjectOutput {
+    /**
+     * Constructs an {@link ObjectOutput}.
+     *
+     * @param out
+     *          the underlying stream
+     */
+    DataObjectOutput(OutputStream out) {
+      super(out);
+    }
+
+    @Override
+    public void close() {
+      // the underlying stream is not ours to close
+    }
+  }
+
+  /**
+   * An {@link ObjectInput} backed by a stream. Subclasses read nested objects.
+   */
+  private abstract static class DataObjectInput extends DataInputStream
+      implements ObjectInput {
+    /**
+     * Constructs an {@link ObjectInput}.
+     *
+     * @param in
+     *          the underlying stream
+     */
+    DataObjectInput(InputStream in) {
+      super(in);
+    }
+
+    @Override
+    public void close() {
+      // the underlying stream is not ours to close
+    }
+  }
+
+  /**
+   * Adapts an externalizer to Kryo.
+   */
+  private static final class KryoAdapter extends Serializer<Object> {
+    /**
+     * The externalizer.
+     */
+    private final Externalizer<?> externalizer;
+
+    /**
+     * Constructs a Kryo serializer.
+     *
+     * @param externalizer
+     *          the externalizer
+     */
+    KryoAdapter(Externalizer<?> externalizer) {
+      this.externalizer = externalizer;
+    }
+
+    @Override
+    public void write(Kryo kryo, Output output, Object object) {
+      try {
+        Externalizers.write(externalizer, new DataObjectOutput(output) {
+          @Override
+          public void writeObject(Object nested) {
+            kryo.writeClassAndObject(output, nested);
+          }
+        }, object);
+      } catch (final IOException e) {
+        throw new KryoException(e);
+      }
+    }
+
+    @Override
+    public Object read(Kryo kryo, Input input, Class<Object> type) {
+      try {
+        return externalizer.read(new DataObjectInput(input) {
+          @Override
+          public Object readObject() {
+            return kryo.readClassAndObject(input);
+          }
+        });
+      } catch (IOException | ClassNotFoundException e) {
+        throw new KryoException(e);
+      }
+    }
+  }
+
+  /**
+   * Adapts an externalizer to Hazelcast.
+   */
+  private static final class HazelcastAdapter
+      implements StreamSerializer<Object> {
+    /**
+     * The externalizer.
+     */
+    private final Externalizer<?> externalizer;
+
+    /**
+     * The Hazelcast type ID.
+     */
+    private final int id;
+
+    /**
+     * Constructs a Hazelcast serializer.
+     *
+     * @param externalizer
+     *          the externalizer
+     * @param id
+     *          the Hazelcast type ID
+     */
+    HazelcastAdapter(Externalizer<?> externalizer, int id) {
+      this.externalizer = externalizer;
+      this.id = id;
+    }
+
+    @Override
+    public int getTypeId() {
+      return id;
+    }
+
+    @Override
+    public void write(ObjectDataOutput data, Object object)
+        throws IOException {
+      Externalizers.write(externalizer,
+          new DataObjectOutput((OutputStream) data) {
+            @Override
+            public void writeObject(Object nested) throws IOException {
+              data.writeObject(nested);
+            }
+          }, object);
+    }
+
+    @Override
+    public Object read(ObjectDataInput data) throws IOException {
+      try {
+        return externalizer.read(new DataObjectInput((InputStream) data) {
+          @Override
+          public Object readObject() throws IOException {
+            return data.readObject();
+          }
+        });
+      } catch (final ClassNotFoundException e) {
+        throw new IOException(e);
+      }
+    }
+
+    @Override
+    public void destroy() {
+    }
+  }
+
+  /**
+   * Serializes the messages of the runtime for Hazelcast using a Java object
+   * stream that uses the externalizers.
+   */
+  private static final class JavaAdapter implements StreamSerializer<Object> {
+    @Override
+    public int getTypeId() {
+      return TYPE_ID - 1;
+    }
+
+    @Override
+    public void write(ObjectDataOutput out, Object object) throws IOException {
+      final ObjectOutputStream oos = newObjectOutputStream((OutputStream) out);
+      oos.writeObject(object);
+      oos.flush();
+    }
+
+    @Override
+    public Object read(ObjectDataInput in) throws IOException {
+      try {
+        return new ObjectInputStream((InputStream) in).readObject();
+      } catch (final ClassNotFoundException e) {
+        throw new IOException(e);
+      }
+    }
+
+    @Override
+    public void destroy() {
+    }
+  }
+}
@@ -0,0 +1,442 @@
+/*
+ *  This file is part of the X10 project (http://x10-lang.org).
+ *
+ *  This file is licensed to You under the Eclipse Public License (EPL);
+ *  You may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *      http://www.opensource.org/licenses/eclipse-1.0.php
+ *
+ *  (C) Copyright IBM Corporation 2006-2016.
+ */
+
+package apgas.impl;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import apgas.DeadPlaceException;
+import apgas.Place;
+
+/**
+ * The {@link FlowControl} class implements credit-based flow control for
+ * remote task spawning.
+ * <p>
+ * A place may have at most {@link Config#APGAS_FLOW_WINDOW} tasks in flight
+ * to each other place. A task is in flight from the time it is sent until it
+ * starts running at the destination. A place that runs out of credits for a
+ * destination blocks in {@link ForkJoinPool#managedBlock} until credits are
+ * returned, so the pool may compensate for the blocked worker.
+ * <p>
+ * Destinations return credits in batches of a quarter of the window, or
+ * after a short delay if fewer tasks are outstanding.
+ */
+public final class FlowControl {
+  /**
+   * The delay in nanoseconds before returning an incomplete batch of credits.
+   */
+  private static final long DELAY = 100000;
+
+  /**
+   * The credits available for a destination place.
+   */
+  private static final class Window {
+    /**
+     * The number of tasks that may still be sent. Guarded by the window's
+     * lock.
+     */
+    private int credits;
+
+    /**
+     * Constructs a {@link Window}.
+     *
+     * @param credits
+     *          the initial credits
+     */
+    private Window(int credits) {
+      this.credits = credits;
+    }
+  }
+
+  /**
+   * The global runtime instance for this place.
+   */
+  private final GlobalRuntimeImpl runtime;
+
+  /**
+   * The maximum number of tasks in flight per destination.
+   */
+  private final int window;
+
+  /**
+   * The number of credits returned at once.
+   */
+  private final int batch;
+
+  /**
+   * The windows indexed by destination place ID.
+   */
+  private final Map<Integer, Window> windows = new ConcurrentHashMap<>();
+
+  /**
+   * The credits owed to each source place indexed by place ID.
+   */
+  private final Map<Integer, AtomicInteger> owed = new ConcurrentHashMap<>();
+
+  /**
+   * The thread returning incomplete batches of credits.
+   */
+  private final Thread flusher;
+
+  /**
+   * False once shutdown is initiated.
+   */
+  private volatile boolean running = true;
+
+  /**
+   * The number of credits acquired.
+   */
+  private final AtomicLong acquired = new AtomicLong();
+
+  /**
+   * The number of times a sender blocked for lack of credits.
+   */
+  private final AtomicLong blocked = new AtomicLong();
+
+  /**
+   * The total time senders spent blocked in nanoseconds.
+   */
+  private final AtomicLong blockedNanos = new AtomicLong();
+
+  /**
+   * The number of credit messages sent.
+   */
+  private final AtomicLong creditMessages = new AtomicLong();
+
+  /**
+   * Constructs a {@link FlowControl} instance configured from the system
+   * properties.
+   *
+   * @param runtime
+   *          the global runtime instance for this place
+   */
+  FlowControl(GlobalRuntimeImpl runtime) {
+    this.runtime = runtime;
+    window = window();
+    batch = Math.max(1, window / 4);
+    flusher = new Thread(this::flush, "apgas-flow-control");
+    flusher.setDaemon(true);
+    flusher.start();
+  }
+
+  /**
+   * Returns the configured window.
+   *
+   * @return the value of the {@link Config#APGAS_FLOW_WINDOW} property or 0 if
+   *         flow control is disabled
+   */
+  public static int window() {
+    return Math.max(0, Integer.getInteger(Config.APGAS_FLOW_WINDOW, 0));
+  }
+
+  /**
+   * Returns the window for a place, allocating it if necessary.
+   *
+   * @param place
+   *          a place ID
+   * @return the window
+   */
+  private Window get(int place) {
+    return windows.computeIfAbsent(place, p -> new Window(window));
+  }
+
+  /**
+   * Attempts to take a credit.
+   *
+   * @param window
+   *          the window
+   * @return true if a credit was taken
+   */
+  private static boolean tryAcquire(Window window) {
+    synchronized (window) {
+      if (window.credits > 0) {
+        --window.credits;
+        return true;
+      }
+      return false;
+    }
+  }
+
+  /**
+   * Takes a credit for sending a task to a place, blocking if none is
+   * available.
+   *
+   * @param place
+   *          the destination place
+   * @throws DeadPlaceException
+   *           if the place dies while waiting for credits
+   */
+  void acquire(int place) {
+    final Window window = get(place);
+    acquired.incrementAndGet();
+    if (tryAcquire(window)) {
+      return;
+    }
+    blocked.incrementAndGet();
+    final long start = System.nanoTime();
+    final boolean[] dead = new boolean[1];
+    try {
+      runtime.scheduler.block(new ForkJoinPool.ManagedBlocker() {
+        @Override
+        public boolean isReleasable() {
+          if (tryAcquire(window)) {
+            return true;
+          }
+          dead[0] = !running || !runtime.transport.isLive(place);
+          return dead[0];
+        }
+
+        @Override
+        public boolean block() throws InterruptedException {
+          synchronized (window) {
+            if (window.credits == 0) {
+              window.wait(10); // periodically check if the place is alive
+            }
+          }
+          return isReleasable();
+        }
+      });
+    } catch (final InterruptedException e) {
+    } finally {
+      blockedNanos.addAndGet(System.nanoTime() - start);
+    }
+    if (dead[0]) {
+      acquired.decrementAndGet();
+      throw new DeadPlaceException(new Place(place));
+    }
+  }
+
+  /**
+   * Gives back a credit taken for a task that could not be sent.
+   *
+   * @param place
+   *          the destination place
+   */
+  void cancel(int place) {
+    acquired.decrementAndGet();
+    release(place, 1);
+  }
+
+  /**
+   * Adds credits returned by a place.
+   *
+   * @param place
+   *          the place returning the credits
+   * @param credits
+   *          the number of credits
+   */
+  void release(int place, int credits) {
+    final Window window = get(place);
+    synchronized (window) {
+      window.credits += credits;
+      window.notifyAll();
+    }
+  }
+
+  /**
+   * Records that a task from a place has started running here.
+   *
+   * @param place
+   *          the source place
+   */
+  void consumed(int place) {
+    final AtomicInteger credits = owed.computeIfAbsent(place,
+        p -> new AtomicInteger());
+    final int count = credits.incrementAndGet();
+    if (count >= batch) {
+      send(place, credits);
+    } else if (count == 1) {
+      LockSupport.unpark(flusher);
+    }
+  }
+
+  /**
+   * Returns the credits owed to a place if any.
+   *
+   * @param place
+   *          the source place
+   * @param credits
+   *          the credits owed to this place
+   */
+  private void send(int place, AtomicInteger credits) {
+    final int count = credits.getAndSet(0);
+    if (count == 0) {
+      return;
+    }
+    creditMessages.incrementAndGet();
+    final int here = runtime.here;
+    try {
+      runtime.transport.send(place, new Credit(here, count));
+    } catch (final Throwable t) {
+      // the source place is dead or shutting down, credits no longer matter
+    }
+  }
+
+  /**
+   * Returns incomplete batches of credits after a short delay until shutdown.
+   */
+  private void flush() {
+    while (running) {
+      boolean idle = true;
+      for (final AtomicInteger credits : owed.values()) {
+        if (credits.get() > 0) {
+          idle = false;
+          break;
+        }
+      }
+      if (idle) {
+        LockSupport.park(this);
+        continue;
+      }
+      LockSupport.parkNanos(this, DELAY);
+      for (final Map.Entry<Integer, AtomicInteger> entry : owed.entrySet()) {
+        send(entry.getKey(), entry.getValue());
+      }
+    }
+  }
+
+  /**
+   * Stops the thread returning credits and wakes up blocked senders.
+   */
+  void shutdown() {
+    running = false;
+    LockSupport.unpark(flusher);
+    for (final Window window : windows.values()) {
+      synchronized (window) {
+        window.notifyAll();
+      }
+    }
+  }
+
+  /**
+   * Returns the maximum number of tasks in flight per destination.
+   *
+   * @return the window
+   */
+  public int getWindow() {
+    return window;
+  }
+
+  /**
+   * Returns the number of tasks in flight to a place.
+   *
+   * @param place
+   *          a place ID
+   * @return a task count
+   */
+  public int getInFlight(int place) {
+    final Window window = windows.get(place);
+    if (window == null) {
+      return 0;
+    }
+    synchronized (window) {
+      return this.window - window.credits;
+    }
+  }
+
+  /**
+   * Returns the number of credits acquired by this place.
+   *
+   * @return a credit count
+   */
+  public long getAcquired() {
+    return acquired.get();
+  }
+
+  /**
+   * Returns the number of times a sender blocked for lack of credits.
+   *
+   * @return a count
+   */
+  public long getBlocked() {
+    return blocked.get();
+  }
+
+  /**
+   * Returns the total time senders spent blocked for lack of credits.
+   *
+   * @return a duration in nanoseconds
+   */
+  public long getBlockedNanos() {
+    return blockedNanos.get();
+  }
+
+  /**
+   * Returns the number of credit messages sent by this place.
+   *
+   * @return a message count
+   */
+  public long getCreditMessages() {
+    return creditMessages.get();
+  }
+
+  @Override
+  public String toString() {
+    final StringBuilder builder = new StringBuilder();
+    builder.append("window: ").append(window).append(", acquired: ")
+        .append(getAcquired()).append(", blocked: ").append(getBlocked())
+        .append(" (").append(getBlockedNanos() / 1e6)
+        .append(" ms), credit messages: ").append(getCreditMessages())
+        .append(", in flight: {");
+    String separator = "";
+    for (final int place : new TreeMap<>(windows).keySet()) {
+      builder.append(separator).append(place).append('=')
+          .append(getInFlight(place));
+      separator = ", ";
+    }
+    return builder.append('}').toString();
+  }
+
+  /**
+   * The {@link Credit} class represents credits returned by a place.
+   */
+  static final class Credit implements SerializableRunnable {
+    private static final long serialVersionUID = 6245379810235468432L;
+
+    /**
+     * The place returning the credits.
+     */
+    private final int place;
+
+    /**
+     * The number of credits.
+     */
+    private final int credits;
+
+    /**
+     * Constructs a new {@link Credit} message.
+     *
+     * @param place
+     *          the place returning the credits
+     * @param credits
+     *          the number of credits
+     */
+    Credit(int place, int credits) {
+      this.place = place;
+      this.credits = credits;
+    }
+
+    @Override
+    public void run() {
+      final FlowControl flowControl = GlobalRuntimeImpl
+          .getRuntime().flowControl;
+      if (flowControl != null) {
+        flowControl.release(place, credits);
+      }
+    }
+  }
+}
@@ -14,7 +14,6 @@ package apgas.impl;
 import java.io.IOException;
 import java.io.Serializable;
 import java.lang.management.ManagementFactory;
-import java.lang.reflect.Field;
 import java.net.Inet6Address;
 import java.net.InetAddress;
 import java.net.NetworkInterface;
@@ -23,23 +22,27 @@ import java.nio.file.FileSystems;
 import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Enumeration;
 import java.util.List;
+import java.util.Map;
 import java.util.SortedSet;
 import java.util.TreeSet;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.ForkJoinTask;
 import java.util.concurrent.RecursiveAction;
 import java.util.function.Consumer;
+import java.util.function.IntConsumer;
 
 import com.hazelcast.core.IMap;
 
 import apgas.Configuration;
 import apgas.Constructs;
 import apgas.GlobalRuntime;
+import apgas.IntBiConsumer;
 import apgas.Job;
 import apgas.MultipleException;
 import apgas.Place;
@@ -63,6 +66,11 @@ public final class GlobalRuntimeImpl extends GlobalRuntime {
    */
   final boolean resilient;
 
+  /**
+   * The value of the APGAS_INLINE_THRESHOLD system property.
+   */
+  private final int inlineThreshold;
+
   /**
    * The finish factory.
    */
@@ -73,6 +81,16 @@ public final class GlobalRuntimeImpl extends GlobalRuntime {
    */
   final Transport transport;
 
+  /**
+   * The flow control for remote tasks or null if disabled.
+   */
+  final FlowControl flowControl;
+
+  /**
+   * The dictionary of serialized lambda shapes.
+   */
+  final LambdaDictionary lambdas;
+
   /**
    * This place's ID.
    */
@@ -84,9 +102,15 @@ public final class GlobalRuntimeImpl extends GlobalRuntime {
   final Place home;
 
   /**
-   * The pool for this global runtime instance.
+   * The number of chunks per thread when {@link #forAsync} chooses the grain
+   * size.
    */
-  final ForkJoinPool pool;
+  private static final int SPLITS_PER_THREAD = 8;
+
+  /**
+   * The scheduler for this global runtime instance.
+   */
+  final Scheduler scheduler;
 
   /**
    * The mutable set of places in this global runtime instance.
@@ -123,13 +147,49 @@ public final class GlobalRuntimeImpl extends GlobalRuntime {
    */
   final IMap<GlobalID, ResilientFinishState> resilientFinishMap;
 
-  private static Worker currentWorker() {
-    final Thread t = Thread.currentThread();
-    return t instanceof Worker ? (Worker) t : null;
-  }
+  /**
+   * The values attached to global IDs in this place.
+   */
+  private final Map<GlobalID, Object> globalIDMap = new ConcurrentHashMap<>();
 
+  /**
+   * Returns the global runtime instance for the current place.
+   * <p>
+   * If multiple places run in this JVM, threads running tasks belong to the
+   * place of their scheduler and other threads belong to the first place.
+   *
+   * @return the global runtime instance
+   */
   public static GlobalRuntimeImpl getRuntime() {
-    return runtime;
+    final Context context = Context.current();
+    return context == null ? runtime : context.runtime;
+  }
+
+  /**
+   * Returns the values attached to global IDs in this place.
+   *
+   * @return the map from global IDs to values
+   */
+  public Map<GlobalID, Object> getGlobalIDMap() {
+    return globalIDMap;
+  }
+
+  /**
+   * Returns the flow control for remote tasks.
+   *
+   * @return the flow control or null if disabled
+   */
+  public FlowControl getFlowControl() {
+    return flowControl;
+  }
+
+  /**
+   * Returns the dictionary of serialized lambda shapes.
+   *
+   * @return the dictionary
+   */
+  public LambdaDictionary getLambdaDictionary() {
+    return lambdas;
   }
 
   /**
@@ -153,15 +213,25 @@ public final class GlobalRuntimeImpl extends GlobalRuntime {
       final boolean verboseLauncher = Boolean
           .getBoolean(Configuration.APGAS_VERBOSE_LAUNCHER);
       resilient = Boolean.getBoolean(Configuration.APGAS_RESILIENT);
+      inlineThreshold = Math.max(0,
+          Integer.getInteger(Config.APGAS_INLINE_THRESHOLD, 0));
 
       final boolean compact = Boolean.getBoolean(Config.APGAS_COMPACT);
       final int maxThreads = Integer.getInteger(Config.APGAS_MAX_THREADS, 256);
+      final String schedulerName = System.getProperty(Config.APGAS_SCHEDULER,
+          "forkjoin");
       final String serialization = System
           .getProperty(Config.APGAS_SERIALIZATION, "kryo");
       final String finishName = System.getProperty(Config.APGAS_FINISH);
       final String java = System.getProperty(Config.APGAS_JAVA, "java");
       final String transportName = System.getProperty(Config.APGAS_TRANSPORT);
       final String launcherName = System.getProperty(Config.APGAS_LAUNCHER);
+      boolean local = Boolean.getBoolean(Config.APGAS_LOCAL) && master == null;
+      if (local && resilient) {
+        System.err.println(
+            "[APGAS] Resilient mode does not support places in a single JVM. Using default launcher.");
+        local = false;
+      }
 
       final String localhost = InetAddress.getLoopbackAddress()
           .getHostAddress();
@@ -184,7 +254,7 @@ public final class GlobalRuntimeImpl extends GlobalRuntime {
 
       // initialize launcher
       Launcher launcher = null;
-      if (master == null && p > 1) {
+      if (master == null && p > 1 && !local) {
         if (launcherName != null) {
           try {
             launcher = (Launcher) Class.forName(launcherName).newInstance();
@@ -201,7 +271,7 @@ public final class GlobalRuntimeImpl extends GlobalRuntime {
       }
       this.launcher = launcher;
 
-      if (master == null && args != null && args.length > 0) {
+      if (master == null && args != null && args.length > 0 && !local) {
         // invoked as a launcher
         final ArrayList<String> command = new ArrayList<>();
         command.add(java);
@@ -250,14 +320,15 @@ public final class GlobalRuntimeImpl extends GlobalRuntime {
       }
 
       // initialize scheduler
-      pool = new ForkJoinPool(maxThreads, new WorkerFactory(), null, false);
-      final Field ctl = ForkJoinPool.class.getDeclaredField("ctl");
-      ctl.setAccessible(true);
-      ctl.setLong(pool,
-          ctl.getLong(pool) + (((long) maxThreads - threads) << 48));
+      final boolean virtual = "virtual".equals(schedulerName);
+      if (!virtual && !"forkjoin".equals(schedulerName)) {
+        System.err.println("[APGAS] Unable to instantiate scheduler: "
+            + schedulerName + ". Using default scheduler.");
+      }
+      scheduler = new Scheduler(this, threads, maxThreads, virtual);
 
       // serialization
-      final Boolean kryo = !"java".equals(serialization);
+      final boolean kryo = !"java".equals(serialization);
       if (kryo && !"kryo".equals(serialization)) {
         System.err
             .println("[APGAS] Unable to instantiate serialization framework: "
@@ -320,15 +391,18 @@ public final class GlobalRuntimeImpl extends GlobalRuntime {
 
       // initialize transport
       Transport transport = null;
-      if (transportName != null) {
+      if (local) {
+        transport = new LocalTransport(this, new LocalTransport[p], 0, kryo);
+      } else if (transportName != null) {
         try {
           transport = (Transport) Class.forName(transportName)
               .getDeclaredConstructor(GlobalRuntimeImpl.class, String.class,
-                  String.class, boolean.class)
-              .newInstance(this, master, ip, compact);
+                  String.class, boolean.class, boolean.class)
+              .newInstance(this, master, ip, compact, kryo);
         } catch (InstantiationException | IllegalAccessException
             | ExceptionInInitializerError | ClassNotFoundException
-            | NoClassDefFoundError | ClassCastException e) {
+            | NoClassDefFoundError | ClassCastException
+            | NoSuchMethodException e) {
           System.err.println("[APGAS] Unable to instantiate transport: "
               + transportName + ". Using default transport.");
         }
@@ -345,6 +419,8 @@ public final class GlobalRuntimeImpl extends GlobalRuntime {
       // initialize here
       here = transport.here();
       home = new Place(here);
+      flowControl = FlowControl.window() > 0 ? new FlowControl(this) : null;
+      lambdas = new LambdaDictionary(this);
 
       resilientFinishMap = resilient
           ? transport.<GlobalID, ResilientFinishState> getResilientFinishMap()
@@ -370,11 +446,24 @@ public final class GlobalRuntimeImpl extends GlobalRuntime {
         }
       }
 
+      // assign IDs to the classes known to be serialized
+      if (master == null && kryo) {
+        ClassRegistry.get().registerConfiguredClasses();
+      }
+
       // start monitoring cluster
       transport.start();
 
+      // start additional places in this JVM
+      if (local) {
+        for (int id = 1; id < p; id++) {
+          new GlobalRuntimeImpl(this, (LocalTransport) transport, id, threads,
+              maxThreads, kryo);
+        }
+      }
+
       // launch additional places
-      if (master == null && p > 1) {
+      if (launcher != null) {
         try {
           final ArrayList<String> command = new ArrayList<>();
           command.add(java);
@@ -418,6 +507,40 @@ public final class GlobalRuntimeImpl extends GlobalRuntime {
     }
   }
 
+  /**
+   * Constructs an additional place running in the same JVM as the first place.
+   *
+   * @param first
+   *          the global runtime instance of the first place
+   * @param transport
+   *          the transport of the first place
+   * @param id
+   *          the place ID
+   * @param threads
+   *          the initial number of worker threads
+   * @param maxThreads
+   *          the maximum number of worker threads
+   * @param kryo
+   *          use kryo serialization if set
+   */
+  private GlobalRuntimeImpl(GlobalRuntimeImpl first, LocalTransport transport,
+      int id, int threads, int maxThreads, boolean kryo) {
+    verboseSerialization = first.verboseSerialization;
+    inlineThreshold = first.inlineThreshold;
+    resilient = false;
+    factory = first.factory;
+    launcher = null;
+    resilientFinishMap = null;
+    here = id;
+    home = new Place(id);
+    flowControl = first.flowControl == null ? null : new FlowControl(this);
+    lambdas = new LambdaDictionary(this);
+    scheduler = new Scheduler(this, threads, maxThreads,
+        first.scheduler.isVirtual());
+    this.transport = new LocalTransport(this, transport.places(), id, kryo);
+    this.transport.start();
+  }
+
   /**
    * Updates the place collections.
    *
@@ -449,8 +572,7 @@ public final class GlobalRuntimeImpl extends GlobalRuntime {
 
       @Override
       public void compute() {
-        final Worker worker = (Worker) Thread.currentThread();
-        worker.task = null; // a handler is not a task (yet)
+        Context.current().task = null; // a handler is not a task (yet)
         for (final int id : removed) {
           ResilientFinishState.purge(id);
         }
@@ -479,7 +601,10 @@ public final class GlobalRuntimeImpl extends GlobalRuntime {
     if (launcher != null) {
       launcher.shutdown();
     }
-    pool.shutdown();
+    scheduler.shutdown();
+    if (flowControl != null) {
+      flowControl.shutdown();
+    }
     transport.shutdown();
   }
 
@@ -497,10 +622,10 @@ public final class GlobalRuntimeImpl extends GlobalRuntime {
    *           if there are uncaught exceptions
    */
   public void finish(Job f) {
-    final Worker worker = currentWorker();
-    final Finish finish = factory.make(worker == null || worker.task == null
-        ? NullFinish.SINGLETON : worker.task.finish);
-    new Task(finish, f, here).finish(worker);
+    final Context context = Context.current();
+    final Finish finish = factory.make(context == null || context.task == null
+        ? NullFinish.SINGLETON : context.task.finish);
+    new Task(finish, f, here).finish(context);
     final List<Throwable> exceptions = finish.exceptions();
     if (exceptions != null) {
       throw MultipleException.make(exceptions);
@@ -530,16 +655,170 @@ public final class GlobalRuntimeImpl extends GlobalRuntime {
   /**
    * Submits a new local task to the global runtime with body {@code f} and
    * returns immediately.
+   * <p>
+   * If {@link Config#APGAS_INLINE_THRESHOLD} is set and the current worker
+   * has more surplus tasks queued than the threshold, {@code f} runs in the
+   * current task instead. Uncaught exceptions are still collected by the
+   * enclosing finish.
    *
    * @param f
    *          the function to run
    */
   public void async(Job f) {
-    final Worker worker = currentWorker();
-    final Finish finish = worker == null || worker.task == null
-        ? NullFinish.SINGLETON : worker.task.finish;
+    final Context context = Context.current();
+    if (inlineThreshold > 0 && context != null && context.worker
+        && context.task != null
+        && ForkJoinTask.getSurplusQueuedTaskCount() > inlineThreshold) {
+      try {
+        f.run();
+      } catch (final Throwable t) {
+        context.task.finish.addSuppressed(t);
+      }
+      return;
+    }
+    final Finish finish = context == null || context.task == null
+        ? NullFinish.SINGLETON : context.task.finish;
     finish.spawn(here);
-    new Task(finish, f, here).async(worker);
+    new Task(finish, f, here).async(context);
+  }
+
+  /**
+   * Submits new local tasks to the global runtime to run {@code body} for
+   * each index in {@code [from, to)} and returns immediately.
+   * <p>
+   * The range is split recursively into chunks of at most {@code grain}
+   * indices. Each chunk is a task, so the enclosing finish counts chunks
+   * rather than iterations.
+   *
+   * @param from
+   *          the first index
+   * @param to
+   *          the upper bound of the range (exclusive)
+   * @param grain
+   *          the maximal number of indices per task, or zero to choose it
+   *          from the number of threads
+   * @param body
+   *          the loop body
+   */
+  public void forAsync(int from, int to, int grain, IntConsumer body) {
+    if (from >= to) {
+      return;
+    }
+    final int g = grain > 0 ? grain : grain((long) to - from);
+    async(() -> split(from, to, g, body));
+  }
+
+  /**
+   * Submits new local tasks to the global runtime to run {@code body} for
+   * each pair of indices in {@code [from0, to0) x [from1, to1)} and returns
+   * immediately.
+   * <p>
+   * The rectangle is split recursively along its longer side into chunks of
+   * at most {@code grain} pairs of indices. Each chunk is a task.
+   *
+   * @param from0
+   *          the first index in the first dimension
+   * @param to0
+   *          the upper bound in the first dimension (exclusive)
+   * @param from1
+   *          the first index in the second dimension
+   * @param to1
+   *          the upper bound in the second dimension (exclusive)
+   * @param grain
+   *          the maximal number of pairs of indices per task, or zero to
+   *          choose it from the number of threads
+   * @param body
+   *          the loop body
+   */
+  public void forAsync(int from0, int to0, int from1, int to1, int grain,
+      IntBiConsumer body) {
+    if (from0 >= to0 || from1 >= to1) {
+      return;
+    }
+    final int g = grain > 0 ? grain
+        : grain(((long) to0 - from0) * ((long) to1 - from1));
+    async(() -> split(from0, to0, from1, to1, g, body));
+  }
+
+  /**
+   * Chooses a grain size so that each thread gets
+   * {@link #SPLITS_PER_THREAD} chunks of the iteration space.
+   *
+   * @param size
+   *          the number of iterations
+   * @return the grain size
+   */
+  private int grain(long size) {
+    return (int) Math.max(1, Math.min(Integer.MAX_VALUE,
+        size / (SPLITS_PER_THREAD * scheduler.getParallelism())));
+  }
+
+  /**
+   * Runs {@code body} for the first chunk of {@code [from, to)} after
+   * spawning tasks for the remaining chunks.
+   *
+   * @param from
+   *          the first index
+   * @param to
+   *          the upper bound of the range (exclusive)
+   * @param grain
+   *          the maximal number of indices per task
+   * @param body
+   *          the loop body
+   */
+  private void split(int from, int to, int grain, IntConsumer body) {
+    int hi = to;
+    while ((long) hi - from > grain) {
+      final int mid = (int) (((long) from + hi) >> 1);
+      final int end = hi;
+      async(() -> split(mid, end, grain, body));
+      hi = mid;
+    }
+    for (int i = from; i < hi; i++) {
+      body.accept(i);
+    }
+  }
+
+  /**
+   * Runs {@code body} for the first chunk of
+   * {@code [from0, to0) x [from1, to1)} after spawning tasks for the
+   * remaining chunks.
+   *
+   * @param from0
+   *          the first index in the first dimension
+   * @param to0
+   *          the upper bound in the first dimension (exclusive)
+   * @param from1
+   *          the first index in the second dimension
+   * @param to1
+   *          the upper bound in the second dimension (exclusive)
+   * @param grain
+   *          the maximal number of pairs of indices per task
+   * @param body
+   *          the loop body
+   */
+  private void split(int from0, int to0, int from1, int to1, int grain,
+      IntBiConsumer body) {
+    int hi0 = to0;
+    int hi1 = to1;
+    while (((long) hi0 - from0) * ((long) hi1 - from1) > grain) {
+      final int end0 = hi0;
+      final int end1 = hi1;
+      if ((long) hi0 - from0 >= (long) hi1 - from1) {
+        final int mid = (int) (((long) from0 + hi0) >> 1);
+        async(() -> split(mid, end0, from1, end1, grain, body));
+        hi0 = mid;
+      } else {
+        final int mid = (int) (((long) from1 + hi1) >> 1);
+        async(() -> split(from0, end0, mid, end1, grain, body));
+        hi1 = mid;
+      }
+    }
+    for (int i = from0; i < hi0; i++) {
+      for (int j = from1; j < hi1; j++) {
+        body.accept(i, j);
+      }
+    }
   }
 
   /**
@@ -552,13 +831,67 @@ public final class GlobalRuntimeImpl extends GlobalRuntime {
    *          the function to run
    */
   public void asyncAt(Place p, SerializableJob f) {
-    final Worker worker = currentWorker();
-    final Finish finish = worker == null || worker.task == null
-        ? NullFinish.SINGLETON : worker.task.finish;
+    final Context context = Context.current();
+    final Finish finish = context == null || context.task == null
+        ? NullFinish.SINGLETON : context.task.finish;
     finish.spawn(p.id);
     new Task(finish, f, here).asyncAt(p.id);
   }
 
+  /**
+   * Submits new tasks to the global runtime to be run at each {@link Place}
+   * in {@code places} with body {@code f} and returns immediately.
+   * <p>
+   * The job is serialized once for all the remote places. Each place gets its
+   * own copy of the job.
+   *
+   * @param places
+   *          the places of execution
+   * @param f
+   *          the function to run
+   */
+  public void asyncAtAll(Collection<? extends Place> places,
+      SerializableJob f) {
+    final Context context = Context.current();
+    final Finish finish = context == null || context.task == null
+        ? NullFinish.SINGLETON : context.task.finish;
+    SerializableJob job = null;
+    for (final Place p : places) {
+      finish.spawn(p.id);
+      if (p.id != here && job == null) {
+        try {
+          job = SerializedJob.of(transport, f);
+        } catch (final Throwable t) {
+          job = f; // let each task report the failure
+        }
+      }
+      new Task(finish, p.id == here ? f : job, here).asyncAt(p.id);
+    }
+  }
+
+  /**
+   * Submits a new runtime task to be run at {@link Place} {@code p} with body
+   * {@code f} and returns immediately.
+   * <p>
+   * Like {@link #asyncAt(Place, SerializableJob)} but the task travels on the
+   * control lane of the transport and is not subject to flow control. Meant
+   * for short tasks such as returning results and releasing resources.
+   *
+   * @param p
+   *          the place of execution
+   * @param f
+   *          the function to run
+   */
+  public void controlAsyncAt(Place p, SerializableJob f) {
+    final Context context = Context.current();
+    final Finish finish = context == null || context.task == null
+        ? NullFinish.SINGLETON : context.task.finish;
+    finish.spawn(p.id);
+    final Task task = new Task(finish, f, here);
+    task.control = true;
+    task.asyncAt(p.id);
+  }
+
   /**
    * Submits an uncounted task to the global runtime to be run at {@link Place}
    * {@code p} with body {@code f} and returns immediately. The termination of
@@ -571,7 +904,42 @@ public final class GlobalRuntimeImpl extends GlobalRuntime {
    *          the function to run
    */
   public void uncountedAsyncAt(Place p, SerializableJob f) {
-    new UncountedTask(f).uncountedAsyncAt(p.id);
+    new UncountedTask(f, here).uncountedAsyncAt(p.id);
+  }
+
+  /**
+   * Sends a task to place p, waiting for credits if flow control is enabled.
+   *
+   * @param p
+   *          the place ID
+   * @param task
+   *          the task to send
+   */
+  void send(int p, SerializableRunnable task) {
+    if (flowControl == null || p == here
+        || Transport.lane(task) == Transport.CONTROL) {
+      transport.send(p, task);
+      return;
+    }
+    flowControl.acquire(p);
+    try {
+      transport.send(p, task);
+    } catch (final Throwable t) {
+      flowControl.cancel(p);
+      throw t;
+    }
+  }
+
+  /**
+   * Notifies the flow control that a task received from place p has started.
+   *
+   * @param p
+   *          the place ID of the sender
+   */
+  void consumed(int p) {
+    if (flowControl != null && p != here) {
+      flowControl.consumed(p);
+    }
   }
 
   /**
@@ -620,7 +988,8 @@ public final class GlobalRuntimeImpl extends GlobalRuntime {
     final Place home = here();
     Constructs.finish(() -> Constructs.asyncAt(p, () -> {
       final T result = f.call();
-      Constructs.asyncAt(home, () -> id.putHere(result));
+      GlobalRuntimeImpl.getRuntime().controlAsyncAt(home,
+          () -> id.putHere(result));
     }));
     return (T) id.removeHere();
   }
@@ -665,18 +1034,27 @@ public final class GlobalRuntimeImpl extends GlobalRuntime {
 
   @Override
   public ExecutorService getExecutorService() {
-    return pool;
+    return scheduler.executor();
+  }
+
+  /**
+   * Returns the scheduler for this place.
+   *
+   * @return the scheduler
+   */
+  public Scheduler getScheduler() {
+    return scheduler;
   }
 
   /**
-   * Submits a task to the pool making sure that a thread will be available to
-   * run it. run.
+   * Submits a task to the scheduler making sure that a thread will be
+   * available to run it.
    *
    * @param task
    *          the task
    */
   void execute(ForkJoinTask<?> task) {
-    pool.execute(task);
+    scheduler.execute(task);
   }
 
   @Override
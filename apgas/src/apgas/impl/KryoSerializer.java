@@ -3,17 +3,27 @@ package apgas.impl;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 
 import org.objenesis.strategy.SerializingInstantiatorStrategy;
 
 import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.KryoException;
+import com.esotericsoftware.kryo.Registration;
 import com.esotericsoftware.kryo.Serializer;
 import com.esotericsoftware.kryo.io.Input;
 import com.esotericsoftware.kryo.io.Output;
 import com.esotericsoftware.kryo.io.UnsafeInput;
 import com.esotericsoftware.kryo.io.UnsafeOutput;
-import com.esotericsoftware.kryo.serializers.ClosureSerializer;
+import com.esotericsoftware.kryo.util.DefaultClassResolver;
+import com.esotericsoftware.kryo.util.MapReferenceResolver;
 import com.hazelcast.nio.ObjectDataInput;
 import com.hazelcast.nio.ObjectDataOutput;
 import com.hazelcast.nio.serialization.StreamSerializer;
@@ -24,42 +34,344 @@ import apgas.util.PlaceLocalObject;
 
 /**
  * The {@link KryoSerializer} implements serialization using Kryo.
- *
+ * <p>
+ * Kryo instances are drawn from a bounded pool shared by all threads. Each
+ * instance comes with the buffers used to wrap Hazelcast streams. The
+ * {@code writeReplace} and {@code readResolve} methods of serialized classes
+ * are looked up once per class and invoked through method handles.
  */
-class KryoSerializer implements StreamSerializer<Object> {
-  private static final ThreadLocal<Kryo> kryoThreadLocal = new ThreadLocal<Kryo>() {
+public class KryoSerializer implements StreamSerializer<Object> {
+  /**
+   * The maximal number of idle Kryo instances kept for reuse.
+   */
+  private static final int POOL_SIZE = 2
+      * Runtime.getRuntime().availableProcessors();
+
+  /**
+   * The size of the buffers used to wrap Hazelcast streams.
+   */
+  private static final int BUFFER_SIZE = 4096;
+
+  /**
+   * The method handle returning its argument, used in place of a missing
+   * hook.
+   */
+  private static final MethodHandle IDENTITY = MethodHandles
+      .identity(Object.class);
+
+  /**
+   * The public {@code writeReplace} method of each class if any.
+   */
+  private static final ClassValue<MethodHandle> WRITE_REPLACE = new ClassValue<MethodHandle>() {
     @Override
-    protected Kryo initialValue() {
-      final Kryo kryo = new Kryo() {
-        @Override
-        @SuppressWarnings({ "rawtypes", "unchecked" })
-        protected Serializer newDefaultSerializer(Class type) {
-          try {
-            type.getMethod("writeReplace");
-            return new CustomSerializer();
-          } catch (final NoSuchMethodException e) {
+    protected MethodHandle computeValue(Class<?> type) {
+      return hook(type.getMethods(), "writeReplace");
+    }
+  };
+
+  /**
+   * The {@code readResolve} method declared by each class if any.
+   */
+  private static final ClassValue<MethodHandle> READ_RESOLVE = new ClassValue<MethodHandle>() {
+    @Override
+    protected MethodHandle computeValue(Class<?> type) {
+      return hook(type.getDeclaredMethods(), "readResolve");
+    }
+  };
+
+  /**
+   * The idle Kryo instances.
+   */
+  private static final BlockingQueue<PooledKryo> pool = new ArrayBlockingQueue<>(
+      POOL_SIZE);
+
+  /**
+   * The destination place of the objects serialized by the current thread.
+   */
+  private static final ThreadLocal<int[]> destination = new ThreadLocal<int[]>() {
+    @Override
+    protected int[] initialValue() {
+      return new int[] { -1 };
+    }
+  };
+
+  /**
+   * A pooled Kryo instance.
+   */
+  private static final class PooledKryo extends Kryo {
+    /**
+     * The actions to run once the object being deserialized is complete.
+     */
+    private final List<Runnable> deferred = new ArrayList<>();
+
+    /**
+     * The buffer for writing to Hazelcast streams.
+     */
+    private final Output output = new UnsafeOutput(BUFFER_SIZE);
+
+    /**
+     * The buffer for reading from Hazelcast streams.
+     */
+    private final Input input = new UnsafeInput(BUFFER_SIZE);
+
+    /**
+     * Constructs a Kryo instance that uses the {@link ClassRegistry}.
+     */
+    private PooledKryo() {
+      super(new Resolver(), new MapReferenceResolver());
+      addDefaultSerializer(DefaultFinish.class, new DefaultFinishSerializer());
+      setInstantiatorStrategy(new SerializingInstantiatorStrategy());
+      register(Task.class);
+      register(UncountedTask.class);
+      register(Batch.class);
+      register(SerializableRunnable[].class);
+      register(CompressedMessage.class);
+      register(FlowControl.Credit.class);
+      register(LambdaDictionary.Ack.class);
+      register(SerializedJob.class);
+      register(Place.class);
+      register(GlobalID.class);
+      register(java.lang.invoke.SerializedLambda.class);
+      try {
+        register(Class.forName(Kryo.class.getName() + "$Closure"),
+            new LambdaSerializer());
+        register(Class
+            .forName(PlaceLocalObject.class.getName() + "$ObjectReference"));
+      } catch (final ClassNotFoundException e) {
+      }
+      ArraySerializers.register(this);
+      if (getNextRegistrationId() > ClassRegistry.BASE) {
+        throw new IllegalStateException(
+            "Explicit registrations overlap the class registry IDs: "
+                + getNextRegistrationId() + " > " + ClassRegistry.BASE);
+      }
+    }
+
+    @Override
+    @SuppressWarnings("rawtypes")
+    public Serializer getDefaultSerializer(Class type) {
+      final Serializer serializer = Externalizers.kryoSerializer(type);
+      return serializer != null ? serializer : super.getDefaultSerializer(type);
+    }
+
+    @Override
+    @SuppressWarnings("rawtypes")
+    protected Serializer newDefaultSerializer(Class type) {
+      final MethodHandle writeReplace = WRITE_REPLACE.get(type);
+      if (writeReplace != IDENTITY) {
+        return new CustomSerializer(writeReplace);
+      }
+      return super.newDefaultSerializer(type);
+    }
+
+    /**
+     * Deserializes an object then runs the deferred actions.
+     *
+     * @param input
+     *          the Kryo input
+     * @return the deserialized object
+     */
+    private Object read(Input input) {
+      try {
+        return readClassAndObject(input);
+      } finally {
+        if (!deferred.isEmpty()) {
+          final Runnable[] actions = deferred.toArray(new Runnable[0]);
+          deferred.clear();
+          for (final Runnable action : actions) {
+            action.run();
           }
-          return super.newDefaultSerializer(type);
         }
-      };
-      kryo.addDefaultSerializer(DefaultFinish.class,
-          new DefaultFinishSerializer());
-      kryo.setInstantiatorStrategy(new SerializingInstantiatorStrategy());
-      kryo.register(Task.class);
-      kryo.register(UncountedTask.class);
-      kryo.register(Place.class);
-      kryo.register(GlobalID.class);
-      kryo.register(java.lang.invoke.SerializedLambda.class);
+      }
+    }
+  }
+
+  /**
+   * Resolves the classes not registered explicitly using the
+   * {@link ClassRegistry}.
+   */
+  private static final class Resolver extends DefaultClassResolver {
+    @Override
+    @SuppressWarnings("rawtypes")
+    public Registration registerImplicit(Class type) {
+      final int id = ClassRegistry.get().id(type.getName());
+      if (id < 0) {
+        return super.registerImplicit(type);
+      }
+      return register(new Registration(type, kryo.getDefaultSerializer(type),
+          ClassRegistry.BASE + id));
+    }
+
+    @Override
+    public Registration readClass(Input input) {
+      final int classID = input.readVarInt(true);
+      if (classID == Kryo.NULL) {
+        return null;
+      }
+      if (classID == NAME + 2) {
+        return readName(input);
+      }
+      final Registration registration = idToRegistration.get(classID - 2);
+      return registration == null ? resolve(classID - 2) : registration;
+    }
+
+    /**
+     * Registers the class with the given cluster-wide Kryo registration ID.
+     *
+     * @param id
+     *          the Kryo registration ID
+     * @return the registration
+     */
+    private Registration resolve(int id) {
+      final String name = id < ClassRegistry.BASE ? null
+          : ClassRegistry.get().name(id - ClassRegistry.BASE);
+      if (name == null) {
+        throw new KryoException("Encountered unregistered class ID: " + id);
+      }
+      final Class<?> type;
       try {
-        kryo.register(Class.forName(Kryo.class.getName() + "$Closure"),
-            new ClosureSerializer());
-        kryo.register(Class
-            .forName(PlaceLocalObject.class.getName() + "$ObjectReference"));
+        type = Class.forName(name, false, kryo.getClassLoader());
       } catch (final ClassNotFoundException e) {
+        throw new KryoException("Unable to find class: " + name, e);
+      }
+      final Registration registration = classToRegistration.get(type);
+      if (registration != null) {
+        // the class is also known under another ID
+        idToRegistration.put(id, registration);
+        return registration;
       }
-      return kryo;
+      return register(
+          new Registration(type, kryo.getDefaultSerializer(type), id));
     }
-  };
+  }
+
+  /**
+   * Resolves a hook method into a method handle.
+   *
+   * @param methods
+   *          the candidate methods
+   * @param name
+   *          the name of the hook
+   * @return a method handle of type (Object)Object or {@link #IDENTITY} if
+   *         there is no such hook
+   */
+  private static MethodHandle hook(Method[] methods, String name) {
+    for (final Method method : methods) {
+      if (method.getName().equals(name) && method.getParameterCount() == 0
+          && !method.getReturnType().isPrimitive()) {
+        try {
+          method.setAccessible(true);
+          return MethodHandles.lookup().unreflect(method)
+              .asType(MethodType.methodType(Object.class, Object.class));
+        } catch (final IllegalAccessException | RuntimeException e) {
+          return IDENTITY;
+        }
+      }
+    }
+    return IDENTITY;
+  }
+
+  /**
+   * Takes a Kryo instance from the pool or makes a new one if the pool is
+   * empty.
+   *
+   * @return a Kryo instance
+   */
+  private static PooledKryo take() {
+    final PooledKryo kryo = pool.poll();
+    return kryo == null ? new PooledKryo() : kryo;
+  }
+
+  /**
+   * Returns a Kryo instance to the pool unless the pool is full.
+   *
+   * @param kryo
+   *          the Kryo instance
+   */
+  private static void release(PooledKryo kryo) {
+    pool.offer(kryo);
+  }
+
+  /**
+   * Serializes an object with a pooled Kryo instance.
+   * <p>
+   * Used by transports that manage their own buffers.
+   *
+   * @param output
+   *          the Kryo output
+   * @param object
+   *          the object to serialize
+   */
+  public static void writeObject(Output output, Object object) {
+    final PooledKryo kryo = take();
+    try {
+      kryo.writeClassAndObject(output, object);
+    } finally {
+      release(kryo);
+    }
+  }
+
+  /**
+   * Deserializes an object with a pooled Kryo instance.
+   * <p>
+   * Used by transports that manage their own buffers.
+   *
+   * @param input
+   *          the Kryo input
+   * @return the deserialized object
+   */
+  public static Object readObject(Input input) {
+    final PooledKryo kryo = take();
+    try {
+      return kryo.read(input);
+    } finally {
+      release(kryo);
+    }
+  }
+
+  /**
+   * Sets the destination place of the objects serialized by the current
+   * thread.
+   * <p>
+   * Lambdas are serialized compactly if the destination is known.
+   *
+   * @param place
+   *          the destination place or -1 if unknown
+   * @return the previous destination place
+   */
+  static int setDestination(int place) {
+    final int[] current = destination.get();
+    final int previous = current[0];
+    current[0] = place;
+    return previous;
+  }
+
+  /**
+   * Returns the destination place of the objects serialized by the current
+   * thread.
+   *
+   * @return the destination place or -1 if unknown
+   */
+  static int getDestination() {
+    return destination.get()[0];
+  }
+
+  /**
+   * Defers an action until the object being deserialized is complete.
+   * <p>
+   * The action is dropped if the deserialization is not initiated by this
+   * class.
+   *
+   * @param kryo
+   *          the Kryo instance deserializing the object
+   * @param action
+   *          the action
+   */
+  static void defer(Kryo kryo, Runnable action) {
+    if (kryo instanceof PooledKryo) {
+      ((PooledKryo) kryo).deferred.add(action);
+    }
+  }
 
   @Override
   public int getTypeId() {
@@ -69,17 +381,34 @@ class KryoSerializer implements StreamSerializer<Object> {
   @Override
   public void write(ObjectDataOutput objectDataOutput, Object object)
       throws IOException {
-    final Output output = new UnsafeOutput((OutputStream) objectDataOutput);
-    final Kryo kryo = kryoThreadLocal.get();
-    kryo.writeClassAndObject(output, object);
-    output.flush();
+    final long start = SerializationProfiler.start();
+    final PooledKryo kryo = take();
+    try {
+      kryo.output.setOutputStream((OutputStream) objectDataOutput);
+      kryo.writeClassAndObject(kryo.output, object);
+      kryo.output.flush();
+      SerializationProfiler.serialized(SerializationProfiler.messages, object,
+          kryo.output.total(), start);
+    } finally {
+      kryo.output.setOutputStream(null);
+      release(kryo);
+    }
   }
 
   @Override
   public Object read(ObjectDataInput objectDataInput) throws IOException {
-    final Input input = new UnsafeInput((InputStream) objectDataInput);
-    final Kryo kryo = kryoThreadLocal.get();
-    return kryo.readClassAndObject(input);
+    final long start = SerializationProfiler.start();
+    final PooledKryo kryo = take();
+    try {
+      kryo.input.setInputStream((InputStream) objectDataInput);
+      final Object object = kryo.read(kryo.input);
+      SerializationProfiler.deserialized(SerializationProfiler.messages, object,
+          kryo.input.total(), start);
+      return object;
+    } finally {
+      kryo.input.setInputStream(null);
+      release(kryo);
+    }
   }
 
   @Override
@@ -87,27 +416,43 @@ class KryoSerializer implements StreamSerializer<Object> {
   }
 
   private static class CustomSerializer extends Serializer<Object> {
+    /**
+     * The {@code writeReplace} method of the serialized class.
+     */
+    private final MethodHandle writeReplace;
+
+    /**
+     * Constructs a {@link CustomSerializer}.
+     *
+     * @param writeReplace
+     *          the {@code writeReplace} method of the serialized class
+     */
+    CustomSerializer(MethodHandle writeReplace) {
+      this.writeReplace = writeReplace;
+    }
+
     @Override
     public void write(Kryo kryo, Output output, Object object) {
       try {
-        final Method writeReplace = object.getClass().getMethod("writeReplace");
-        object = writeReplace.invoke(object);
-      } catch (final Exception e) {
+        object = (Object) writeReplace.invokeExact(object);
+      } catch (final Throwable t) {
+        throw new KryoException(t);
       }
       kryo.writeClassAndObject(output, object);
     }
 
     @Override
     public Object read(Kryo kryo, Input input, Class<Object> type) {
-      Object object = kryo.readClassAndObject(input);
+      final Object object = kryo.readClassAndObject(input);
+      if (object == null) {
+        return null;
+      }
       try {
-        final Method readResolve = object.getClass()
-            .getDeclaredMethod("readResolve");
-        readResolve.setAccessible(true);
-        object = readResolve.invoke(object);
-      } catch (final Exception e) {
+        return (Object) READ_RESOLVE.get(object.getClass())
+            .invokeExact(object);
+      } catch (final Throwable t) {
+        throw new KryoException(t);
       }
-      return object;
     }
   }
 
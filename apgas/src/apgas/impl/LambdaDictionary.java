@@ -0,0 +1,477 @@
+/*
+ *  This file is part of the X10 project (http://x10-lang.org).
+ *
+ *  This file is licensed to You under the Eclipse Public License (EPL);
+ *  You may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *      http://www.opensource.org/licenses/eclipse-1.0.php
+ *
+ *  (C) Copyright IBM Corporation 2006-2016.
+ */
+
+package apgas.impl;
+
+import java.lang.invoke.SerializedLambda;
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.esotericsoftware.kryo.KryoException;
+
+/**
+ * The {@link LambdaDictionary} class assigns small integer IDs to the shapes
+ * of the lambdas serialized by a place and caches the resolved shapes of the
+ * lambdas received from other places.
+ * <p>
+ * A place sends the shape of a lambda along with its ID until the destination
+ * acknowledges it. Acknowledgments are sent once per shape and pair of places
+ * so the dictionary never needs to be reset or synchronized with message
+ * delivery order.
+ * <p>
+ * Only used with Kryo serialization.
+ */
+public final class LambdaDictionary {
+  /**
+   * A lambda shape known to this place.
+   */
+  static final class Entry {
+    /**
+     * The ID of the shape at this place.
+     */
+    final int id;
+
+    /**
+     * The shape.
+     */
+    final LambdaSerializer.Shape shape;
+
+    /**
+     * The {@code writeReplace} method of the lambda class.
+     */
+    final Method writeReplace;
+
+    /**
+     * The IDs of the places that acknowledged this shape.
+     */
+    final Set<Integer> confirmed = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Constructs an {@link Entry}.
+     *
+     * @param id
+     *          the ID of the shape
+     * @param shape
+     *          the shape
+     * @param writeReplace
+     *          the {@code writeReplace} method of the lambda class
+     */
+    private Entry(int id, LambdaSerializer.Shape shape, Method writeReplace) {
+      this.id = id;
+      this.shape = shape;
+      this.writeReplace = writeReplace;
+    }
+  }
+
+  /**
+   * The global runtime instance for this place.
+   */
+  private final GlobalRuntimeImpl runtime;
+
+  /**
+   * The ID of this place.
+   */
+  final int here;
+
+  /**
+   * The shapes of the lambdas serialized by this place indexed by class.
+   */
+  private final Map<Class<?>, Entry> entries = new ConcurrentHashMap<>();
+
+  /**
+   * The shapes of the lambdas serialized by this place indexed by ID.
+   */
+  private final Map<Integer, Entry> ids = new ConcurrentHashMap<>();
+
+  /**
+   * The next shape ID.
+   */
+  private final AtomicInteger nextId = new AtomicInteger();
+
+  /**
+   * The resolved shapes received from other places indexed by source place
+   * and shape ID.
+   */
+  private final Map<Integer, Map<Integer, LambdaSerializer.Factory>> factories = new ConcurrentHashMap<>();
+
+  /**
+   * The number of lambdas serialized with their shape.
+   */
+  private final LongAdder definitionsWritten = new LongAdder();
+
+  /**
+   * The number of bytes written for lambdas serialized with their shape.
+   */
+  private final LongAdder definitionBytes = new LongAdder();
+
+  /**
+   * The number of lambdas serialized without their shape.
+   */
+  private final LongAdder referencesWritten = new LongAdder();
+
+  /**
+   * The number of bytes written for lambdas serialized without their shape.
+   */
+  private final LongAdder referenceBytes = new LongAdder();
+
+  /**
+   * The number of lambdas deserialized with their shape.
+   */
+  private final LongAdder definitionsRead = new LongAdder();
+
+  /**
+   * The time spent deserializing lambdas with their shape in nanoseconds.
+   */
+  private final LongAdder definitionNanos = new LongAdder();
+
+  /**
+   * The number of lambdas deserialized without their shape.
+   */
+  private final LongAdder referencesRead = new LongAdder();
+
+  /**
+   * The time spent deserializing lambdas without their shape in nanoseconds.
+   */
+  private final LongAdder referenceNanos = new LongAdder();
+
+  /**
+   * Constructs a {@link LambdaDictionary} instance.
+   *
+   * @param runtime
+   *          the global runtime instance for this place
+   */
+  LambdaDictionary(GlobalRuntimeImpl runtime) {
+    this.runtime = runtime;
+    here = runtime.here;
+  }
+
+  /**
+   * Returns the dictionary of the current place.
+   *
+   * @return the dictionary or null if the runtime is not initialized yet
+   */
+  static LambdaDictionary get() {
+    final GlobalRuntimeImpl runtime = GlobalRuntimeImpl.getRuntime();
+    return runtime == null ? null : runtime.lambdas;
+  }
+
+  /**
+   * Returns the {@code writeReplace} method of a lambda class.
+   *
+   * @param type
+   *          the lambda class
+   * @return the method
+   */
+  static Method writeReplace(Class<?> type) {
+    try {
+      final Method method = type.getDeclaredMethod("writeReplace");
+      method.setAccessible(true);
+      return method;
+    } catch (final ReflectiveOperationException e) {
+      throw new KryoException("Cannot serialize lambda " + type.getName(), e);
+    }
+  }
+
+  /**
+   * Converts a lambda to a {@link SerializedLambda}.
+   *
+   * @param writeReplace
+   *          the {@code writeReplace} method of the lambda class
+   * @param object
+   *          the lambda
+   * @return the serialized lambda
+   */
+  static SerializedLambda replace(Method writeReplace, Object object) {
+    try {
+      return (SerializedLambda) writeReplace.invoke(object);
+    } catch (final ReflectiveOperationException e) {
+      throw new KryoException(
+          "Cannot serialize lambda " + object.getClass().getName(), e);
+    }
+  }
+
+  /**
+   * Returns the entry for the class of a lambda, assigning it an ID the first
+   * time the class is seen.
+   *
+   * @param object
+   *          the lambda
+   * @return the entry
+   */
+  Entry entry(Object object) {
+    final Entry entry = entries.get(object.getClass());
+    if (entry != null) {
+      return entry;
+    }
+    return entries.computeIfAbsent(object.getClass(), type -> {
+      final Method writeReplace = writeReplace(type);
+      final Entry e = new Entry(nextId.getAndIncrement(),
+          new LambdaSerializer.Shape(replace(writeReplace, object)),
+          writeReplace);
+      ids.put(e.id, e);
+      return e;
+    });
+  }
+
+  /**
+   * Returns the resolved shape received from a place.
+   *
+   * @param place
+   *          the source place
+   * @param id
+   *          the ID of the shape at the source place
+   * @return the resolved shape or null if unknown
+   */
+  LambdaSerializer.Factory factory(int place, int id) {
+    final Map<Integer, LambdaSerializer.Factory> map = factories.get(place);
+    return map == null ? null : map.get(id);
+  }
+
+  /**
+   * Records a resolved shape received from a place.
+   *
+   * @param place
+   *          the source place
+   * @param id
+   *          the ID of the shape at the source place
+   * @param factory
+   *          the resolved shape
+   * @return true if the shape was not known already
+   */
+  boolean define(int place, int id, LambdaSerializer.Factory factory) {
+    return factories.computeIfAbsent(place, p -> new ConcurrentHashMap<>())
+        .putIfAbsent(id, factory) == null;
+  }
+
+  /**
+   * Acknowledges a shape received from a place.
+   *
+   * @param place
+   *          the source place
+   * @param id
+   *          the ID of the shape at the source place
+   */
+  void acknowledge(int place, int id) {
+    if (place == here) {
+      confirm(here, id);
+      return;
+    }
+    try {
+      runtime.transport.send(place, new Ack(here, id));
+    } catch (final Throwable t) {
+      // the source place is dead, or will send the shape again
+    }
+  }
+
+  /**
+   * Records that a place acknowledged a shape.
+   *
+   * @param place
+   *          the destination place
+   * @param id
+   *          the ID of the shape
+   */
+  void confirm(int place, int id) {
+    final Entry entry = ids.get(id);
+    if (entry != null) {
+      entry.confirmed.add(place);
+    }
+  }
+
+  /**
+   * Updates the serialization counters.
+   *
+   * @param definition
+   *          true if the shape was written
+   * @param bytes
+   *          the number of bytes written
+   */
+  void written(boolean definition, long bytes) {
+    if (definition) {
+      definitionsWritten.increment();
+      definitionBytes.add(bytes);
+    } else {
+      referencesWritten.increment();
+      referenceBytes.add(bytes);
+    }
+  }
+
+  /**
+   * Updates the deserialization counters.
+   *
+   * @param definition
+   *          true if the shape was read
+   * @param nanos
+   *          the time spent
+   */
+  void read(boolean definition, long nanos) {
+    if (definition) {
+      definitionsRead.increment();
+      definitionNanos.add(nanos);
+    } else {
+      referencesRead.increment();
+      referenceNanos.add(nanos);
+    }
+  }
+
+  /**
+   * Returns the number of lambda shapes serialized by this place.
+   *
+   * @return a shape count
+   */
+  public int getShapes() {
+    return entries.size();
+  }
+
+  /**
+   * Returns the number of lambdas serialized with their shape.
+   *
+   * @return a lambda count
+   */
+  public long getDefinitionsWritten() {
+    return definitionsWritten.sum();
+  }
+
+  /**
+   * Returns the number of bytes written for lambdas serialized with their
+   * shape, including captured values but excluding the class tag.
+   *
+   * @return a byte count
+   */
+  public long getDefinitionBytes() {
+    return definitionBytes.sum();
+  }
+
+  /**
+   * Returns the number of lambdas serialized without their shape.
+   *
+   * @return a lambda count
+   */
+  public long getReferencesWritten() {
+    return referencesWritten.sum();
+  }
+
+  /**
+   * Returns the number of bytes written for lambdas serialized without their
+   * shape, including captured values but excluding the class tag.
+   *
+   * @return a byte count
+   */
+  public long getReferenceBytes() {
+    return referenceBytes.sum();
+  }
+
+  /**
+   * Returns the number of lambdas deserialized with their shape.
+   *
+   * @return a lambda count
+   */
+  public long getDefinitionsRead() {
+    return definitionsRead.sum();
+  }
+
+  /**
+   * Returns the time spent deserializing lambdas with their shape, including
+   * captured values.
+   *
+   * @return a duration in nanoseconds
+   */
+  public long getDefinitionNanos() {
+    return definitionNanos.sum();
+  }
+
+  /**
+   * Returns the number of lambdas deserialized without their shape.
+   *
+   * @return a lambda count
+   */
+  public long getReferencesRead() {
+    return referencesRead.sum();
+  }
+
+  /**
+   * Returns the time spent deserializing lambdas without their shape,
+   * including captured values.
+   *
+   * @return a duration in nanoseconds
+   */
+  public long getReferenceNanos() {
+    return referenceNanos.sum();
+  }
+
+  /**
+   * Returns a ratio or 0 if the divisor is 0.
+   *
+   * @param dividend
+   *          the dividend
+   * @param divisor
+   *          the divisor
+   * @return the ratio
+   */
+  private static double average(long dividend, long divisor) {
+    return divisor == 0 ? 0 : (double) dividend / divisor;
+  }
+
+  @Override
+  public String toString() {
+    return "shapes: " + getShapes() + ", written: "
+        + getDefinitionsWritten() + " definitions ("
+        + average(getDefinitionBytes(), getDefinitionsWritten())
+        + " bytes avg), " + getReferencesWritten() + " references ("
+        + average(getReferenceBytes(), getReferencesWritten())
+        + " bytes avg), read: " + getDefinitionsRead() + " definitions ("
+        + average(getDefinitionNanos(), getDefinitionsRead())
+        + " ns avg), " + getReferencesRead() + " references ("
+        + average(getReferenceNanos(), getReferencesRead()) + " ns avg)";
+  }
+
+  /**
+   * The {@link Ack} class acknowledges a lambda shape.
+   */
+  static final class Ack implements SerializableRunnable {
+    private static final long serialVersionUID = -2947006410719215368L;
+
+    /**
+     * The place acknowledging the shape.
+     */
+    private final int place;
+
+    /**
+     * The ID of the shape.
+     */
+    private final int id;
+
+    /**
+     * Constructs a new {@link Ack} message.
+     *
+     * @param place
+     *          the place acknowledging the shape
+     * @param id
+     *          the ID of the shape
+     */
+    Ack(int place, int id) {
+      this.place = place;
+      this.id = id;
+    }
+
+    @Override
+    public void run() {
+      final LambdaDictionary lambdas = GlobalRuntimeImpl.getRuntime().lambdas;
+      if (lambdas != null) {
+        lambdas.confirm(place, id);
+      }
+    }
+  }
+}
@@ -0,0 +1,335 @@
+/*
+ *  This file is part of the X10 project (http://x10-lang.org).
+ *
+ *  This file is licensed to You under the Eclipse Public License (EPL);
+ *  You may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *      http://www.opensource.org/licenses/eclipse-1.0.php
+ *
+ *  (C) Copyright IBM Corporation 2006-2016.
+ */
+
+package apgas.impl;
+
+import java.lang.invoke.SerializedLambda;
+import java.lang.reflect.Method;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.KryoException;
+import com.esotericsoftware.kryo.Serializer;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+
+/**
+ * The {@link LambdaSerializer} class serializes lambdas using the
+ * {@link LambdaDictionary} of the current place.
+ * <p>
+ * A lambda is encoded as a header, optionally followed by the shape of the
+ * lambda, i.e., the {@link SerializedLambda} minus the captured values,
+ * followed by the captured values. The header is 0 if no dictionary is
+ * available. Otherwise it combines the ID of the shape at the source place
+ * with a bit indicating whether the shape follows, and is followed by the
+ * source place ID. The shape is included until the destination place
+ * acknowledges it. Afterwards, a lambda that captures nothing is encoded in a
+ * couple of bytes and reused by the destination without reflection.
+ */
+final class LambdaSerializer extends Serializer<Object> {
+  /**
+   * The shape of a lambda.
+   */
+  static final class Shape {
+    /**
+     * The name of the class that created the lambda.
+     */
+    final String capturingClass;
+
+    /**
+     * The name of the functional interface.
+     */
+    final String functionalInterfaceClass;
+
+    /**
+     * The name of the functional interface method.
+     */
+    final String functionalInterfaceMethodName;
+
+    /**
+     * The signature of the functional interface method.
+     */
+    final String functionalInterfaceMethodSignature;
+
+    /**
+     * The method handle kind of the implementation method.
+     */
+    final int implMethodKind;
+
+    /**
+     * The name of the class of the implementation method.
+     */
+    final String implClass;
+
+    /**
+     * The name of the implementation method.
+     */
+    final String implMethodName;
+
+    /**
+     * The signature of the implementation method.
+     */
+    final String implMethodSignature;
+
+    /**
+     * The signature of the functional interface method after type
+     * substitution.
+     */
+    final String instantiatedMethodType;
+
+    /**
+     * The number of captured values.
+     */
+    final int capturedArgCount;
+
+    /**
+     * Constructs the shape of a serialized lambda.
+     *
+     * @param lambda
+     *          the serialized lambda
+     */
+    Shape(SerializedLambda lambda) {
+      capturingClass = lambda.getCapturingClass();
+      functionalInterfaceClass = lambda.getFunctionalInterfaceClass();
+      functionalInterfaceMethodName = lambda.getFunctionalInterfaceMethodName();
+      functionalInterfaceMethodSignature = lambda
+          .getFunctionalInterfaceMethodSignature();
+      implMethodKind = lambda.getImplMethodKind();
+      implClass = lambda.getImplClass();
+      implMethodName = lambda.getImplMethodName();
+      implMethodSignature = lambda.getImplMethodSignature();
+      instantiatedMethodType = lambda.getInstantiatedMethodType();
+      capturedArgCount = lambda.getCapturedArgCount();
+    }
+
+    /**
+     * Reads a shape.
+     *
+     * @param input
+     *          the Kryo input
+     */
+    Shape(Input input) {
+      capturingClass = input.readString();
+      functionalInterfaceClass = input.readString();
+      functionalInterfaceMethodName = input.readString();
+      functionalInterfaceMethodSignature = input.readString();
+      implMethodKind = input.readVarInt(true);
+      implClass = input.readString();
+      implMethodName = input.readString();
+      implMethodSignature = input.readString();
+      instantiatedMethodType = input.readString();
+      capturedArgCount = input.readVarInt(true);
+    }
+
+    /**
+     * Writes this shape.
+     *
+     * @param output
+     *          the Kryo output
+     */
+    void write(Output output) {
+      output.writeString(capturingClass);
+      output.writeString(functionalInterfaceClass);
+      output.writeString(functionalInterfaceMethodName);
+      output.writeString(functionalInterfaceMethodSignature);
+      output.writeVarInt(implMethodKind, true);
+      output.writeString(implClass);
+      output.writeString(implMethodName);
+      output.writeString(implMethodSignature);
+      output.writeString(instantiatedMethodType);
+      output.writeVarInt(capturedArgCount, true);
+    }
+  }
+
+  /**
+   * A resolved lambda shape used to instantiate received lambdas.
+   */
+  static final class Factory {
+    /**
+     * The shape.
+     */
+    private final Shape shape;
+
+    /**
+     * The class that created the lambda.
+     */
+    private final Class<?> capturingClass;
+
+    /**
+     * The {@code $deserializeLambda$} method of the capturing class.
+     */
+    private final Method deserializer;
+
+    /**
+     * The lambda if it captures nothing and has been instantiated before.
+     */
+    private volatile Object instance;
+
+    /**
+     * Resolves a shape.
+     *
+     * @param shape
+     *          the shape
+     * @param loader
+     *          the class loader to use
+     */
+    Factory(Shape shape, ClassLoader loader) {
+      this.shape = shape;
+      try {
+        capturingClass = Class.forName(shape.capturingClass.replace('/', '.'),
+            false, loader);
+        deserializer = capturingClass.getDeclaredMethod("$deserializeLambda$",
+            SerializedLambda.class);
+        deserializer.setAccessible(true);
+      } catch (final ReflectiveOperationException e) {
+        throw new KryoException(
+            "Cannot resolve lambda in class " + shape.capturingClass, e);
+      }
+    }
+
+    /**
+     * Instantiates the lambda.
+     *
+     * @param args
+     *          the captured values
+     * @return the lambda
+     */
+    Object newInstance(Object[] args) {
+      Object object = instance;
+      if (object != null) {
+        return object;
+      }
+      try {
+        object = deserializer.invoke(null,
+            new SerializedLambda(capturingClass, shape.functionalInterfaceClass,
+                shape.functionalInterfaceMethodName,
+                shape.functionalInterfaceMethodSignature, shape.implMethodKind,
+                shape.implClass, shape.implMethodName,
+                shape.implMethodSignature, shape.instantiatedMethodType,
+                args));
+      } catch (final ReflectiveOperationException e) {
+        throw new KryoException(
+            "Cannot instantiate lambda " + shape.implMethodName, e);
+      }
+      if (args.length == 0) {
+        instance = object; // a lambda that captures nothing is stateless
+      }
+      return object;
+    }
+  }
+
+  @Override
+  public void write(Kryo kryo, Output output, Object object) {
+    final LambdaDictionary dictionary = LambdaDictionary.get();
+    if (dictionary == null) {
+      final SerializedLambda lambda = LambdaDictionary
+          .replace(LambdaDictionary.writeReplace(object.getClass()), object);
+      output.writeVarInt(0, true);
+      new Shape(lambda).write(output);
+      writeArgs(kryo, output, lambda);
+      return;
+    }
+    final long start = output.total();
+    final LambdaDictionary.Entry entry = dictionary.entry(object);
+    final int destination = KryoSerializer.getDestination();
+    final boolean define = destination < 0
+        || !entry.confirmed.contains(destination);
+    output.writeVarInt((entry.id + 1) << 1 | (define ? 1 : 0), true);
+    output.writeVarInt(dictionary.here, true);
+    if (define) {
+      entry.shape.write(output);
+    }
+    if (entry.shape.capturedArgCount > 0) {
+      writeArgs(kryo, output, LambdaDictionary.replace(entry.writeReplace,
+          object));
+    }
+    dictionary.written(define, output.total() - start);
+  }
+
+  /**
+   * Writes the captured values of a lambda.
+   *
+   * @param kryo
+   *          the Kryo instance
+   * @param output
+   *          the Kryo output
+   * @param lambda
+   *          the serialized lambda
+   */
+  private static void writeArgs(Kryo kryo, Output output,
+      SerializedLambda lambda) {
+    for (int i = 0; i < lambda.getCapturedArgCount(); i++) {
+      final Object arg = lambda.getCapturedArg(i);
+      final long start = SerializationProfiler.start();
+      final long position = output.total();
+      kryo.writeClassAndObject(output, arg);
+      SerializationProfiler.serialized(SerializationProfiler.captures, arg,
+          output.total() - position, start);
+    }
+  }
+
+  @Override
+  public Object read(Kryo kryo, Input input, Class<Object> type) {
+    final long start = System.nanoTime();
+    final int header = input.readVarInt(true);
+    if (header == 0) {
+      final Factory factory = new Factory(new Shape(input),
+          kryo.getClassLoader());
+      return factory.newInstance(readArgs(kryo, input, factory.shape));
+    }
+    final int id = (header >>> 1) - 1;
+    final int source = input.readVarInt(true);
+    final boolean define = (header & 1) != 0;
+    final LambdaDictionary dictionary = LambdaDictionary.get();
+    Factory factory = dictionary == null ? null
+        : dictionary.factory(source, id);
+    if (define) {
+      final Shape shape = new Shape(input);
+      if (factory == null) {
+        factory = new Factory(shape, kryo.getClassLoader());
+        if (dictionary != null && dictionary.define(source, id, factory)) {
+          KryoSerializer.defer(kryo, () -> dictionary.acknowledge(source, id));
+        }
+      }
+    } else if (factory == null) {
+      throw new KryoException(
+          "Unknown lambda " + id + " from place " + source);
+    }
+    final Object object = factory.newInstance(readArgs(kryo, input,
+        factory.shape));
+    if (dictionary != null) {
+      dictionary.read(define, System.nanoTime() - start);
+    }
+    return object;
+  }
+
+  /**
+   * Reads the captured values of a lambda.
+   *
+   * @param kryo
+   *          the Kryo instance
+   * @param input
+   *          the Kryo input
+   * @param shape
+   *          the shape of the lambda
+   * @return the captured values
+   */
+  private static Object[] readArgs(Kryo kryo, Input input, Shape shape) {
+    final Object[] args = new Object[shape.capturedArgCount];
+    for (int i = 0; i < args.length; i++) {
+      final long start = SerializationProfiler.start();
+      final long position = input.total();
+      args[i] = kryo.readClassAndObject(input);
+      SerializationProfiler.deserialized(SerializationProfiler.captures,
+          args[i], input.total() - position, start);
+    }
+    return args;
+  }
+}
@@ -0,0 +1,304 @@
+/*
+ *  This file is part of the X10 project (http://x10-lang.org).
+ *
+ *  This file is licensed to You under the Eclipse Public License (EPL);
+ *  You may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *      http://www.opensource.org/licenses/eclipse-1.0.php
+ *
+ *  (C) Copyright IBM Corporation 2006-2016.
+ */
+
+package apgas.impl;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RejectedExecutionException;
+
+import com.esotericsoftware.kryo.io.ByteBufferOutput;
+import com.esotericsoftware.kryo.io.Input;
+import com.hazelcast.core.IMap;
+
+import apgas.DeadPlaceException;
+import apgas.Place;
+import apgas.util.PlaceLocalObject;
+
+/**
+ * The {@link LocalTransport} class implements active messages between places
+ * running in the same JVM.
+ * <p>
+ * Messages are serialized by the sender and deserialized by a worker of the
+ * destination place, so that finish objects and global IDs are resolved in
+ * the destination place. If {@link Config#APGAS_LOCAL_SERIALIZATION} is
+ * false, the jobs of tasks are passed by reference unless they capture
+ * place-local objects.
+ */
+final class LocalTransport extends Transport {
+  /**
+   * The accessible instance fields of reference type of each class or null if
+   * they cannot be made accessible.
+   */
+  private static final ClassValue<Field[]> FIELDS = new ClassValue<Field[]>() {
+    @Override
+    protected Field[] computeValue(Class<?> type) {
+      final List<Field> fields = new ArrayList<>();
+      for (Class<?> c = type; c != null; c = c.getSuperclass()) {
+        for (final Field field : c.getDeclaredFields()) {
+          if (Modifier.isStatic(field.getModifiers())
+              || field.getType().isPrimitive()) {
+            continue;
+          }
+          try {
+            field.setAccessible(true);
+          } catch (final RuntimeException e) {
+            return null;
+          }
+          fields.add(field);
+        }
+      }
+      return fields.toArray(new Field[fields.size()]);
+    }
+  };
+
+  /**
+   * The transports of the places in this JVM indexed by place ID. An entry is
+   * null until the place starts and after the place shuts down.
+   */
+  private final LocalTransport[] places;
+
+  /**
+   * The global runtime instance for this place.
+   */
+  private final GlobalRuntimeImpl runtime;
+
+  /**
+   * Serializes the jobs of tasks if set.
+   */
+  private final boolean serialization;
+
+  /**
+   * The pool of serialization buffers.
+   */
+  private final OutputPool outputs = new OutputPool(64, 4096, 1 << 20, false);
+
+  /**
+   * Initializes the {@link LocalTransport} for a place.
+   *
+   * @param runtime
+   *          the global runtime instance for this place
+   * @param places
+   *          the transports of the places in this JVM
+   * @param here
+   *          the place ID
+   * @param kryo
+   *          use kryo serialization if set
+   */
+  LocalTransport(GlobalRuntimeImpl runtime, LocalTransport[] places, int here,
+      boolean kryo) {
+    super(runtime, here, kryo);
+    this.runtime = runtime;
+    this.places = places;
+    serialization = Boolean.parseBoolean(
+        System.getProperty(Config.APGAS_LOCAL_SERIALIZATION, "true"));
+  }
+
+  /**
+   * Returns the transports of the places in this JVM.
+   *
+   * @return the shared array of transports
+   */
+  LocalTransport[] places() {
+    return places;
+  }
+
+  /**
+   * Makes this place visible to the other places and vice versa.
+   */
+  @Override
+  protected void start() {
+    final List<Integer> added = new ArrayList<>();
+    final List<LocalTransport> others = new ArrayList<>();
+    synchronized (places) {
+      places[here()] = this;
+      for (int id = 0; id < places.length; id++) {
+        if (places[id] != null) {
+          added.add(id);
+          if (id != here()) {
+            others.add(places[id]);
+          }
+        }
+      }
+    }
+    runtime.updatePlaces(added, Collections.<Integer> emptyList());
+    for (final LocalTransport transport : others) {
+      transport.runtime.updatePlaces(Collections.singletonList(here()),
+          Collections.<Integer> emptyList());
+    }
+  }
+
+  /**
+   * Removes this place and notifies the other places.
+   */
+  @Override
+  protected void shutdown() {
+    final List<LocalTransport> others = new ArrayList<>();
+    synchronized (places) {
+      if (places[here()] != this) {
+        return;
+      }
+      places[here()] = null;
+      for (final LocalTransport transport : places) {
+        if (transport != null) {
+          others.add(transport);
+        }
+      }
+    }
+    for (final LocalTransport transport : others) {
+      transport.runtime.updatePlaces(Collections.<Integer> emptyList(),
+          Collections.singletonList(here()));
+    }
+  }
+
+  @Override
+  protected int maxPlace() {
+    return places.length;
+  }
+
+  @Override
+  protected boolean isLive(int place) {
+    return place >= 0 && place < places.length && places[place] != null;
+  }
+
+  @Override
+  protected String getAddress() {
+    return "local:" + here();
+  }
+
+  @Override
+  <K, V> IMap<K, V> getMap(String name) {
+    throw new UnsupportedOperationException(
+        "Distributed maps are not available in this transport");
+  }
+
+  @Override
+  <K, V> IMap<K, V> getResilientFinishMap() {
+    throw new UnsupportedOperationException(
+        "Resilient finish is not available in this transport");
+  }
+
+  @Override
+  protected void send(int place, SerializableRunnable f) {
+    if (place == here()) {
+      f.run();
+      return;
+    }
+    final LocalTransport transport = isLive(place) ? places[place] : null;
+    if (transport == null) {
+      throw new DeadPlaceException(new Place(place));
+    }
+    final Callable<SerializableRunnable> message;
+    if (!serialization && f instanceof Task && shareable(((Task) f).job())) {
+      final Task task = (Task) f;
+      final byte[] finish = toBytes(place, task.finish);
+      message = () -> task.withFinish((Finish) fromBytes(finish));
+    } else if (!serialization && f instanceof UncountedTask
+        && shareable(((UncountedTask) f).job())) {
+      message = ((UncountedTask) f)::received;
+    } else {
+      final byte[] bytes = toBytes(place, f);
+      message = () -> (SerializableRunnable) fromBytes(bytes);
+    }
+    try {
+      transport.runtime.execute(new RecursiveAction() {
+        private static final long serialVersionUID = 4167960914651622311L;
+
+        @Override
+        protected void compute() {
+          Context.current().task = null; // a message is not a task
+          try {
+            message.call().run();
+          } catch (final Throwable t) {
+            t.printStackTrace();
+          }
+        }
+      });
+    } catch (final RejectedExecutionException e) {
+      throw new DeadPlaceException(new Place(place));
+    }
+  }
+
+  /**
+   * Returns true if a job can be passed by reference to another place.
+   * <p>
+   * A job cannot be shared if it captures a place-local object, directly or
+   * through the lambdas it captures, since the object must resolve to the
+   * instance of the destination place. Place-local objects nested in other
+   * captured objects are not detected.
+   *
+   * @param job
+   *          the job
+   * @return true if the job does not capture place-local objects
+   */
+  private static boolean shareable(Object job) {
+    final Field[] fields = FIELDS.get(job.getClass());
+    if (fields == null) {
+      return false;
+    }
+    for (final Field field : fields) {
+      final Object value;
+      try {
+        value = field.get(job);
+      } catch (final IllegalAccessException e) {
+        return false;
+      }
+      if (value instanceof PlaceLocalObject || (value != null
+          && value.getClass().isSynthetic() && !shareable(value))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Serializes an object for a place into a new byte array.
+   *
+   * @param place
+   *          the destination place
+   * @param object
+   *          the object to serialize
+   * @return the serialized object
+   */
+  private byte[] toBytes(int place, Object object) {
+    final ByteBufferOutput output = outputs.take();
+    try {
+      serializeTo(place, output, object);
+      return output.toBytes();
+    } catch (final IOException e) {
+      throw new RuntimeException(e);
+    } finally {
+      outputs.release(output);
+    }
+  }
+
+  /**
+   * Deserializes an object from a byte array.
+   *
+   * @param bytes
+   *          the serialized object
+   * @return the object
+   * @throws IOException
+   *           if Java deserialization fails
+   * @throws ClassNotFoundException
+   *           if the class of the serialized object cannot be found
+   */
+  private Object fromBytes(byte[] bytes)
+      throws IOException, ClassNotFoundException {
+    return deserialize(new Input(bytes));
+  }
+}
@@ -0,0 +1,793 @@
+/*
+ *  This file is part of the X10 project (http://x10-lang.org).
+ *
+ *  This file is licensed to You under the Eclipse Public License (EPL);
+ *  You may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *      http://www.opensource.org/licenses/eclipse-1.0.php
+ *
+ *  (C) Copyright IBM Corporation 2006-2016.
+ */
+
+package apgas.impl;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import com.esotericsoftware.kryo.io.ByteBufferInput;
+import com.esotericsoftware.kryo.io.ByteBufferOutput;
+import com.hazelcast.core.IMap;
+
+import apgas.DeadPlaceException;
+import apgas.Place;
+
+/**
+ * The {@link NioTransport} class implements active messages over non-blocking
+ * socket channels.
+ * <p>
+ * Hazelcast is only used for cluster membership and resilient finish. There
+ * is one connection per pair of places and per lane. The place with the
+ * higher ID opens the connections when it starts. Each lane has its own
+ * selector thread reading all the incoming messages of the lane, so that
+ * control messages are never stuck behind large tasks. Outgoing messages are
+ * written by the sending thread unless the connection is congested, in which
+ * case they are queued and written by the selector thread of the lane.
+ * <p>
+ * Messages are framed with a four-byte length prefix and serialized into
+ * pooled buffers, off-heap unless {@link Config#APGAS_TRANSPORT_DIRECT} is
+ * set to false.
+ */
+public class NioTransport extends Transport {
+  private static final String APGAS_NIO = "apgas:nio";
+
+  /**
+   * The initial capacity of the receive buffer of a connection.
+   */
+  private static final int READ_CAPACITY = 64 * 1024;
+
+  /**
+   * A serialized message waiting to be written.
+   */
+  private static final class Frame {
+    /**
+     * The bytes remaining to be written.
+     */
+    private final ByteBuffer buffer;
+
+    /**
+     * The pooled output backing the buffer.
+     */
+    private final ByteBufferOutput output;
+
+    /**
+     * Constructs a {@link Frame}.
+     *
+     * @param buffer
+     *          the bytes to write
+     * @param output
+     *          the pooled output backing the buffer
+     */
+    private Frame(ByteBuffer buffer, ByteBufferOutput output) {
+      this.buffer = buffer;
+      this.output = output;
+    }
+  }
+
+  /**
+   * A connection to a remote place.
+   */
+  private static final class Connection {
+    /**
+     * The lane of the connection.
+     */
+    private final Lane lane;
+
+    /**
+     * The remote place ID.
+     */
+    private final int place;
+
+    /**
+     * The socket channel.
+     */
+    private final SocketChannel channel;
+
+    /**
+     * The frames waiting to be written. Guarded by the connection's lock.
+     */
+    private final ArrayDeque<Frame> queue = new ArrayDeque<>();
+
+    /**
+     * The bytes received but not yet deserialized. Only accessed by the
+     * selector thread of the lane.
+     */
+    private ByteBuffer buffer = ByteBuffer.allocateDirect(READ_CAPACITY);
+
+    /**
+     * True once closed. Guarded by the connection's lock.
+     */
+    private boolean closed;
+
+    /**
+     * Constructs a {@link Connection}.
+     *
+     * @param lane
+     *          the lane of the connection
+     * @param place
+     *          the remote place ID
+     * @param channel
+     *          the socket channel
+     */
+    private Connection(Lane lane, int place, SocketChannel channel) {
+      this.lane = lane;
+      this.place = place;
+      this.channel = channel;
+    }
+  }
+
+  /**
+   * The connections, selector and threads of a lane.
+   */
+  private static final class Lane {
+    /**
+     * {@link Transport#CONTROL} or {@link Transport#BULK}.
+     */
+    private final int id;
+
+    /**
+     * The connections indexed by remote place ID.
+     */
+    private final Map<Integer, Connection> connections =
+        new ConcurrentHashMap<>();
+
+    /**
+     * The selector for the connections of this lane.
+     */
+    private final Selector selector;
+
+    /**
+     * The pending selector operations, run by the selector thread.
+     */
+    private final ConcurrentLinkedQueue<Runnable> operations =
+        new ConcurrentLinkedQueue<>();
+
+    /**
+     * The selector thread or null until the transport starts.
+     */
+    private Thread selectorThread;
+
+    /**
+     * The coalescer for outgoing serialized messages or null if coalescing is
+     * disabled or the transport has not started.
+     */
+    private Coalescer<byte[]> coalescer;
+
+    /**
+     * Constructs a {@link Lane}.
+     *
+     * @param id
+     *          {@link Transport#CONTROL} or {@link Transport#BULK}
+     * @throws IOException
+     *           if the selector cannot be opened
+     */
+    private Lane(int id) throws IOException {
+      this.id = id;
+      selector = Selector.open();
+    }
+  }
+
+  /**
+   * The lanes indexed by lane ID.
+   */
+  private final Lane[] lanes = new Lane[LANES];
+
+  /**
+   * The socket addresses of the places in the form "ip:port" indexed by place
+   * ID.
+   */
+  private final IMap<Integer, String> addresses;
+
+  /**
+   * The server channel accepting connections from places with higher IDs.
+   */
+  private final ServerSocketChannel server;
+
+  /**
+   * The socket address of the server channel in the form "ip:port".
+   */
+  private final String serverAddress;
+
+  /**
+   * The pool of serialization buffers.
+   */
+  private final OutputPool outputs;
+
+  /**
+   * The thread pool for immediate messages.
+   */
+  private final ThreadPoolExecutor immediateThreads;
+
+  /**
+   * False once shutdown is initiated.
+   */
+  private volatile boolean running = true;
+
+  /**
+   * Initializes the {@link NioTransport} for this global runtime instance.
+   *
+   * @param runtime
+   *          the global runtime instance
+   * @param master
+   *          member to connect to or null
+   * @param localhost
+   *          the preferred ip address of this host or null
+   * @param compact
+   *          reduces thread creation if set
+   * @param kryo
+   *          use kryo serialization if set
+   * @throws IOException
+   *           if the server channel cannot be opened
+   */
+  public NioTransport(GlobalRuntimeImpl runtime, String master,
+      String localhost, boolean compact, boolean kryo) throws IOException {
+    super(runtime, master, localhost, compact, kryo);
+    outputs = new OutputPool(64, 4096, 1 << 20, Boolean.parseBoolean(
+        System.getProperty(Config.APGAS_TRANSPORT_DIRECT, "true")));
+    final int immediates = Math.max(1,
+        Integer.getInteger(Config.APGAS_TRANSPORT_IMMEDIATE_THREADS, 2));
+    immediateThreads = new ThreadPoolExecutor(immediates, immediates, 0L,
+        TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(1024),
+        new ThreadPoolExecutor.CallerRunsPolicy());
+    for (int lane = 0; lane < LANES; lane++) {
+      lanes[lane] = new Lane(lane);
+    }
+
+    // listen on the interface used by Hazelcast
+    final String host = hazelcast.getCluster().getLocalMember()
+        .getSocketAddress().getAddress().getHostAddress();
+    server = ServerSocketChannel.open();
+    server.bind(new InetSocketAddress(host, 0));
+    serverAddress = host + ":"
+        + ((InetSocketAddress) server.getLocalAddress()).getPort();
+    addresses = hazelcast.getMap(APGAS_NIO);
+  }
+
+  /**
+   * Publishes the address of this place and starts the selector, acceptor and
+   * connector threads.
+   * <p>
+   * The lane coalescers are created before any place becomes visible.
+   */
+  @Override
+  protected synchronized void start() {
+    addresses.set(here(), serverAddress);
+    for (final Lane lane : lanes) {
+      lane.selectorThread = new Thread(() -> select(lane),
+          lane.id == CONTROL ? "apgas-nio-control" : "apgas-nio-selector");
+      lane.selectorThread.setDaemon(true);
+      lane.coalescer = Coalescer.enabled() ? new Coalescer<>(
+          (place, messages, bytes) -> sendBatch(lane, place, messages))
+          : null;
+    }
+    super.start();
+    for (final Lane lane : lanes) {
+      lane.selectorThread.start();
+    }
+    final Thread acceptor = new Thread(this::accept, "apgas-nio-acceptor");
+    acceptor.setDaemon(true);
+    acceptor.start();
+    final Thread connector = new Thread(this::connect, "apgas-nio-connector");
+    connector.setDaemon(true);
+    connector.start();
+  }
+
+  @Override
+  protected void send(int place, SerializableRunnable f) {
+    if (place == here()) {
+      f.run();
+      return;
+    }
+    final Lane lane = lanes[lane(f)];
+    if (lane.coalescer == null) {
+      final Connection connection = connection(lane, place);
+      final ByteBufferOutput output = outputs.take();
+      try {
+        output.writeInt(0); // length placeholder
+        serialize(place, output, f);
+        output.getByteBuffer().putInt(0, output.position() - 4);
+      } catch (final IOException e) {
+        outputs.release(output);
+        throw new UncheckedIOException(e);
+      }
+      write(connection, place, output);
+      return;
+    }
+    if (!isLive(place)) {
+      throw new DeadPlaceException(new Place(place));
+    }
+    // serialize now, later changes to the message must not be sent
+    final ByteBufferOutput output = outputs.take();
+    try {
+      serialize(place, output, f);
+      final byte[] data = output.toBytes();
+      lane.coalescer.add(place, data, data.length);
+    } catch (final IOException e) {
+      throw new UncheckedIOException(e);
+    } finally {
+      outputs.release(output);
+    }
+  }
+
+  /**
+   * Sends a batch of serialized messages to a place.
+   * <p>
+   * The messages are written back to back as length-prefixed frames, so the
+   * receiver dispatches them as if sent alone. Messages for a place that died
+   * while they were buffered are dropped as if lost in transit.
+   *
+   * @param lane
+   *          the lane of the messages
+   * @param place
+   *          the destination place
+   * @param messages
+   *          the serialized messages
+   */
+  private void sendBatch(Lane lane, int place, List<byte[]> messages) {
+    try {
+      final Connection connection = connection(lane, place);
+      final ByteBufferOutput output = outputs.take();
+      for (final byte[] data : messages) {
+        output.writeInt(data.length);
+        output.writeBytes(data);
+      }
+      write(connection, place, output);
+    } catch (final DeadPlaceException e) {
+    }
+  }
+
+  /**
+   * Writes framed messages to a connection.
+   * <p>
+   * The frames are written immediately if the connection is not congested and
+   * queued for the selector thread otherwise. The output is released once
+   * written.
+   *
+   * @param connection
+   *          the connection
+   * @param place
+   *          the destination place
+   * @param output
+   *          the pooled output holding the frames from position zero
+   * @throws DeadPlaceException
+   *           if the connection is lost
+   */
+  private void write(Connection connection, int place,
+      ByteBufferOutput output) {
+    final Lane lane = connection.lane;
+    boolean queued = false;
+    try {
+      final ByteBuffer buffer = output.getByteBuffer().duplicate();
+      buffer.position(0);
+      buffer.limit(output.position());
+      synchronized (connection) {
+        if (connection.closed) {
+          throw new DeadPlaceException(new Place(place));
+        }
+        if (connection.queue.isEmpty()) {
+          connection.channel.write(buffer);
+          if (!buffer.hasRemaining()) {
+            return;
+          }
+          submit(lane, () -> {
+            final SelectionKey key = connection.channel.keyFor(lane.selector);
+            if (key != null && key.isValid()) {
+              key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+            }
+          });
+        }
+        connection.queue.add(new Frame(buffer, output));
+        queued = true;
+      }
+    } catch (final IOException e) {
+      close(connection);
+      throw new DeadPlaceException(new Place(place));
+    } finally {
+      if (!queued) {
+        outputs.release(output);
+      }
+    }
+  }
+
+  /**
+   * Returns the connection to a place on a lane, waiting for it to be
+   * established if necessary.
+   *
+   * @param lane
+   *          the lane
+   * @param place
+   *          a remote place ID
+   * @return the connection
+   * @throws DeadPlaceException
+   *           if the place is dead
+   */
+  private Connection connection(Lane lane, int place) {
+    Connection connection = lane.connections.get(place);
+    if (connection != null) {
+      return connection;
+    }
+    synchronized (lane.connections) {
+      while ((connection = lane.connections.get(place)) == null) {
+        if (!running || !isLive(place)) {
+          throw new DeadPlaceException(new Place(place));
+        }
+        try {
+          lane.connections.wait(100);
+        } catch (final InterruptedException e) {
+        }
+      }
+    }
+    return connection;
+  }
+
+  /**
+   * Makes a connected channel available for sending and receiving.
+   *
+   * @param lane
+   *          the lane of the channel
+   * @param place
+   *          the remote place ID
+   * @param channel
+   *          a connected blocking channel
+   * @throws IOException
+   *           if the channel cannot be configured
+   */
+  private void open(Lane lane, int place, SocketChannel channel)
+      throws IOException {
+    channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+    channel.configureBlocking(false);
+    final Connection connection = new Connection(lane, place, channel);
+    submit(lane, () -> {
+      try {
+        channel.register(lane.selector, SelectionKey.OP_READ, connection);
+      } catch (final IOException e) {
+        close(connection);
+      }
+    });
+    synchronized (lane.connections) {
+      lane.connections.put(place, connection);
+      lane.connections.notifyAll();
+    }
+  }
+
+  /**
+   * Closes a connection, dropping its queued frames.
+   *
+   * @param connection
+   *          the connection
+   */
+  private void close(Connection connection) {
+    synchronized (connection) {
+      if (connection.closed) {
+        return;
+      }
+      connection.closed = true;
+      for (final Frame frame : connection.queue) {
+        outputs.release(frame.output);
+      }
+      connection.queue.clear();
+    }
+    connection.lane.connections.remove(connection.place, connection);
+    try {
+      connection.channel.close();
+    } catch (final IOException e) {
+    }
+  }
+
+  /**
+   * Submits an operation to the selector thread of a lane.
+   *
+   * @param lane
+   *          the lane
+   * @param operation
+   *          the operation
+   */
+  private void submit(Lane lane, Runnable operation) {
+    lane.operations.add(operation);
+    lane.selector.wakeup();
+  }
+
+  /**
+   * Connects to all the live places with lower IDs, once per lane.
+   */
+  private void connect() {
+    for (int place = 0; place < here() && running; place++) {
+      String address;
+      while ((address = addresses.get(place)) == null && isLive(place)
+          && running) {
+        try {
+          Thread.sleep(10);
+        } catch (final InterruptedException e) {
+        }
+      }
+      if (address == null || !isLive(place) || !running) {
+        continue;
+      }
+      final int index = address.lastIndexOf(':');
+      for (final Lane lane : lanes) {
+        try {
+          final SocketChannel channel = SocketChannel
+              .open(new InetSocketAddress(address.substring(0, index),
+                  Integer.parseInt(address.substring(index + 1))));
+          final ByteBuffer handshake = ByteBuffer.allocate(8);
+          handshake.putInt(0, here());
+          handshake.putInt(4, lane.id);
+          while (handshake.hasRemaining()) {
+            channel.write(handshake);
+          }
+          open(lane, place, channel);
+        } catch (final IOException e) {
+          if (running && isLive(place)) {
+            System.err.println("[APGAS] Unable to connect to place " + place
+                + " at " + address + ": " + e);
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Accepts connections from places with higher IDs until shutdown.
+   */
+  private void accept() {
+    final ByteBuffer handshake = ByteBuffer.allocate(8);
+    while (running) {
+      SocketChannel channel = null;
+      try {
+        channel = server.accept();
+        handshake.clear();
+        while (handshake.hasRemaining()) {
+          if (channel.read(handshake) < 0) {
+            throw new EOFException();
+          }
+        }
+        final int place = handshake.getInt(0);
+        final int lane = handshake.getInt(4);
+        if (place < 0 || lane < 0 || lane >= LANES) {
+          throw new IOException(
+              "invalid handshake from place " + place + " on lane " + lane);
+        }
+        open(lanes[lane], place, channel);
+      } catch (final IOException e) {
+        if (channel != null) {
+          try {
+            channel.close();
+          } catch (final IOException x) {
+          }
+        }
+        if (running) {
+          System.err.println("[APGAS] Unable to accept connection: " + e);
+        }
+      }
+    }
+  }
+
+  /**
+   * Reads incoming messages and writes queued frames of a lane until
+   * shutdown.
+   *
+   * @param lane
+   *          the lane
+   */
+  private void select(Lane lane) {
+    final ByteBufferInput input = new ByteBufferInput();
+    while (running) {
+      try {
+        lane.selector.select();
+      } catch (final IOException e) {
+        if (running) {
+          e.printStackTrace();
+        }
+        return;
+      }
+      Runnable operation;
+      while ((operation = lane.operations.poll()) != null) {
+        operation.run();
+      }
+      for (final SelectionKey key : lane.selector.selectedKeys()) {
+        final Connection connection = (Connection) key.attachment();
+        try {
+          if (key.isValid() && key.isWritable()) {
+            flush(connection, key);
+          }
+          if (key.isValid() && key.isReadable()) {
+            read(connection, input);
+          }
+        } catch (final IOException e) {
+          close(connection);
+        }
+      }
+      lane.selector.selectedKeys().clear();
+    }
+  }
+
+  /**
+   * Writes the queued frames of a connection until done or congested.
+   *
+   * @param connection
+   *          the connection
+   * @param key
+   *          the selection key of the connection
+   * @throws IOException
+   *           if the connection is lost
+   */
+  private void flush(Connection connection, SelectionKey key)
+      throws IOException {
+    synchronized (connection) {
+      Frame frame;
+      while ((frame = connection.queue.peek()) != null) {
+        connection.channel.write(frame.buffer);
+        if (frame.buffer.hasRemaining()) {
+          return;
+        }
+        connection.queue.poll();
+        outputs.release(frame.output);
+      }
+      key.interestOps(SelectionKey.OP_READ);
+    }
+  }
+
+  /**
+   * Reads and dispatches the complete messages available on a connection.
+   *
+   * @param connection
+   *          the connection
+   * @param input
+   *          the input of the selector thread
+   * @throws IOException
+   *           if the connection is lost
+   */
+  private void read(Connection connection, ByteBufferInput input)
+      throws IOException {
+    ByteBuffer buffer = connection.buffer;
+    if (connection.channel.read(buffer) < 0) {
+      throw new EOFException();
+    }
+    buffer.flip();
+    int needed = 0;
+    while (buffer.remaining() >= 4) {
+      final int length = buffer.getInt(buffer.position());
+      if (buffer.remaining() - 4 < length) {
+        needed = length + 4;
+        break;
+      }
+      buffer.position(buffer.position() + 4);
+      final ByteBuffer frame = buffer.slice();
+      frame.limit(length);
+      receive(connection.lane, frame, input);
+      buffer.position(buffer.position() + length);
+    }
+    buffer.compact();
+    if (needed > buffer.capacity()) {
+      final ByteBuffer tmp = ByteBuffer
+          .allocateDirect(Math.max(needed, 2 * buffer.capacity()));
+      buffer.flip();
+      tmp.put(buffer);
+      buffer = tmp;
+    } else if (buffer.position() == 0
+        && buffer.capacity() > READ_CAPACITY) {
+      // shrink back after a large message
+      buffer = ByteBuffer.allocateDirect(READ_CAPACITY);
+    }
+    connection.buffer = buffer;
+  }
+
+  /**
+   * Deserializes a runnable in place and dispatches it.
+   * <p>
+   * Tasks are submitted directly to the pool of the global runtime, and so
+   * are all the runnables received on the bulk lane. Immediate messages on the
+   * control lane run in a bounded thread pool.
+   *
+   * @param lane
+   *          the lane of the runnable
+   * @param data
+   *          the serialized runnable starting at position zero
+   * @param input
+   *          the input of the selector thread
+   */
+  private void receive(Lane lane, ByteBuffer data, ByteBufferInput input) {
+    final SerializableRunnable f;
+    try {
+      input.setBuffer(data);
+      f = (SerializableRunnable) deserialize(input);
+    } catch (final Exception e) {
+      e.printStackTrace();
+      return;
+    }
+    if (f instanceof ForkJoinTask || lane.id == BULK) {
+      try {
+        f.run();
+      } catch (final Throwable t) {
+        t.printStackTrace();
+      }
+    } else {
+      immediateThreads.execute(f);
+    }
+  }
+
+  @Override
+  protected Coalescer<byte[]> newCoalescer(int lane) {
+    return null; // coalesce without going through Hazelcast
+  }
+
+  @Override
+  public Coalescer<?> getCoalescer(int lane) {
+    return lanes[lane].coalescer;
+  }
+
+  /**
+   * Flushes and closes all connections and shuts down the Hazelcast instance.
+   * <p>
+   * Queued frames are written out before the connections are closed.
+   */
+  @Override
+  protected synchronized void shutdown() {
+    for (final Lane lane : lanes) {
+      if (lane.coalescer != null) {
+        lane.coalescer.shutdown();
+      }
+    }
+    running = false;
+    try {
+      server.close();
+    } catch (final IOException e) {
+    }
+    for (final Lane lane : lanes) {
+      lane.selector.wakeup();
+      try {
+        if (lane.selectorThread != null) {
+          lane.selectorThread.join(1000);
+        }
+      } catch (final InterruptedException e) {
+      }
+      try {
+        lane.selector.close();
+      } catch (final IOException e) {
+      }
+      for (final Connection connection : lane.connections.values()) {
+        synchronized (connection) {
+          try {
+            connection.channel.configureBlocking(true);
+            for (final Frame frame : connection.queue) {
+              while (frame.buffer.hasRemaining()) {
+                connection.channel.write(frame.buffer);
+              }
+            }
+          } catch (final IOException | IllegalStateException e) {
+            // best effort
+          }
+        }
+        close(connection);
+      }
+    }
+    immediateThreads.shutdown();
+    super.shutdown();
+  }
+}
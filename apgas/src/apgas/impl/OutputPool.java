@@ -0,0 +1,94 @@
+/*
+ *  This file is part of the X10 project (http://x10-lang.org).
+ *
+ *  This file is licensed to You under the Eclipse Public License (EPL);
+ *  You may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *      http://www.opensource.org/licenses/eclipse-1.0.php
+ *
+ *  (C) Copyright IBM Corporation 2006-2016.
+ */
+
+package apgas.impl;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+
+import com.esotericsoftware.kryo.io.ByteBufferOutput;
+
+/**
+ * The {@link OutputPool} class implements a bounded pool of reusable
+ * serialization buffers.
+ * <p>
+ * Buffers grow as needed. Buffers that have grown beyond the retention limit
+ * are not returned to the pool.
+ */
+public final class OutputPool {
+  /**
+   * The pooled buffers.
+   */
+  private final ArrayBlockingQueue<ByteBufferOutput> pool;
+
+  /**
+   * The initial capacity of new buffers.
+   */
+  private final int capacity;
+
+  /**
+   * The largest buffer capacity returned to the pool.
+   */
+  private final int retain;
+
+  /**
+   * True if buffers are allocated off-heap.
+   */
+  private final boolean direct;
+
+  /**
+   * Constructs a {@link OutputPool}.
+   *
+   * @param size
+   *          the maximum number of pooled buffers
+   * @param capacity
+   *          the initial capacity of new buffers
+   * @param retain
+   *          the largest buffer capacity returned to the pool
+   * @param direct
+   *          allocates buffers off-heap if set
+   */
+  public OutputPool(int size, int capacity, int retain, boolean direct) {
+    pool = new ArrayBlockingQueue<>(size);
+    this.capacity = capacity;
+    this.retain = retain;
+    this.direct = direct;
+  }
+
+  /**
+   * Returns an empty buffer from the pool or a new buffer if the pool is
+   * empty.
+   *
+   * @return the buffer
+   */
+  public ByteBufferOutput take() {
+    final ByteBufferOutput output = pool.poll();
+    if (output != null) {
+      return output;
+    }
+    return new ByteBufferOutput(direct ? ByteBuffer.allocateDirect(capacity)
+        : ByteBuffer.allocate(capacity), -1);
+  }
+
+  /**
+   * Returns a buffer to the pool.
+   *
+   * @param output
+   *          a buffer obtained from {@link #take()}
+   */
+  public void release(ByteBufferOutput output) {
+    if (output.getByteBuffer().capacity() > retain) {
+      return;
+    }
+    output.clear();
+    pool.offer(output);
+  }
+}
@@ -0,0 +1,327 @@
+/*
+ *  This file is part of the X10 project (http://x10-lang.org).
+ *
+ *  This file is licensed to You under the Eclipse Public License (EPL);
+ *  You may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *      http://www.opensource.org/licenses/eclipse-1.0.php
+ *
+ *  (C) Copyright IBM Corporation 2006-2016.
+ */
+
+package apgas.impl;
+
+import java.lang.reflect.Constructor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+
+/**
+ * The {@link Scheduler} class manages the worker threads of a place.
+ * <p>
+ * The pool keeps {@link apgas.Configuration#APGAS_THREADS} workers active.
+ * When a worker blocks, e.g., waiting for a finish, the pool may add a
+ * compensation worker to preserve the parallelism, up to a total of
+ * {@link Config#APGAS_MAX_THREADS} workers. Compensation workers retire after
+ * {@link #KEEP_ALIVE} seconds without work.
+ * <p>
+ * The maximum is enforced using the public {@link ForkJoinPool} constructor
+ * introduced in Java 9, looked up reflectively since the runtime still
+ * compiles for Java 8. On Java 8, the number of compensation workers is not
+ * bounded.
+ * <p>
+ * If {@link Config#APGAS_SCHEDULER} is set to "virtual", each task runs
+ * instead in its own virtual thread. A blocked task, e.g., waiting for a
+ * finish or a remote {@code at}, then holds no platform thread and there are
+ * no compensation workers. Virtual threads are only available on Java 21 or
+ * later and are looked up reflectively. The carrier threads are shared by all
+ * the places running in the JVM. Unless already configured, the carrier pool
+ * is sized to {@link apgas.Configuration#APGAS_THREADS} carriers, and to
+ * {@link Config#APGAS_MAX_THREADS} carriers if virtual threads are pinned,
+ * e.g., waiting in a synchronized method prior to Java 24.
+ */
+public final class Scheduler {
+  /**
+   * The time in seconds an idle compensation worker is kept alive.
+   */
+  static final long KEEP_ALIVE = 60;
+
+  /**
+   * The global runtime instance the tasks belong to.
+   */
+  private final GlobalRuntimeImpl runtime;
+
+  /**
+   * The pool or null if tasks run in virtual threads.
+   */
+  private final ForkJoinPool pool;
+
+  /**
+   * The executor service running the tasks.
+   */
+  private final ExecutorService executor;
+
+  /**
+   * The target number of active workers.
+   */
+  private final int parallelism;
+
+  /**
+   * The maximal number of workers.
+   */
+  private final int maxThreads;
+
+  /**
+   * The number of workers blocked in {@link #block}.
+   */
+  private final AtomicInteger blocked = new AtomicInteger();
+
+  /**
+   * The number of virtual threads running tasks.
+   */
+  private final AtomicInteger running = new AtomicInteger();
+
+  /**
+   * Constructs a scheduler.
+   *
+   * @param runtime
+   *          the global runtime instance the workers belong to
+   * @param threads
+   *          the target number of active workers
+   * @param maxThreads
+   *          the maximal number of workers
+   * @param virtual
+   *          run each task in its own virtual thread if set
+   */
+  Scheduler(GlobalRuntimeImpl runtime, int threads, int maxThreads,
+      boolean virtual) {
+    this.runtime = runtime;
+    parallelism = threads;
+    this.maxThreads = Math.max(threads, maxThreads);
+    final ExecutorService executor = virtual
+        ? newVirtualExecutor(threads, this.maxThreads) : null;
+    if (executor == null) {
+      pool = newPool(new WorkerFactory(runtime), threads, this.maxThreads);
+      this.executor = pool;
+    } else {
+      pool = null;
+      this.executor = executor;
+    }
+  }
+
+  /**
+   * Creates a pool with a bounded number of compensation workers if
+   * supported by the JVM.
+   *
+   * @param factory
+   *          the worker factory
+   * @param threads
+   *          the target number of active workers
+   * @param maxThreads
+   *          the maximal number of workers
+   * @return the pool
+   */
+  private static ForkJoinPool newPool(WorkerFactory factory, int threads,
+      int maxThreads) {
+    try {
+      final Constructor<ForkJoinPool> constructor = ForkJoinPool.class
+          .getConstructor(int.class,
+              ForkJoinPool.ForkJoinWorkerThreadFactory.class,
+              Thread.UncaughtExceptionHandler.class, boolean.class, int.class,
+              int.class, int.class, Predicate.class, long.class,
+              TimeUnit.class);
+      // when saturated, block without compensation instead of failing
+      final Predicate<ForkJoinPool> saturate = pool -> true;
+      return constructor.newInstance(threads, factory, null, false, 0,
+          maxThreads, 1, saturate, KEEP_ALIVE, TimeUnit.SECONDS);
+    } catch (final NoSuchMethodException e) {
+      // Java 8
+    } catch (final ReflectiveOperationException e) {
+      System.err.println("[APGAS] Unable to bound the number of threads: " + e
+          + ". Ignoring.");
+    }
+    return new ForkJoinPool(threads, factory, null, false);
+  }
+
+  /**
+   * Creates an executor service running each task in a new virtual thread if
+   * supported by the JVM.
+   *
+   * @param threads
+   *          the target number of carrier threads
+   * @param maxThreads
+   *          the maximal number of carrier threads
+   * @return the executor service or null if virtual threads are not
+   *         available
+   */
+  private static ExecutorService newVirtualExecutor(int threads,
+      int maxThreads) {
+    // only effective before the first virtual thread of the JVM is started
+    if (System.getProperty("jdk.virtualThreadScheduler.parallelism") == null) {
+      System.setProperty("jdk.virtualThreadScheduler.parallelism",
+          Integer.toString(threads));
+    }
+    if (System.getProperty("jdk.virtualThreadScheduler.maxPoolSize") == null) {
+      System.setProperty("jdk.virtualThreadScheduler.maxPoolSize",
+          Integer.toString(maxThreads));
+    }
+    try {
+      final Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+      final Class<?> type = Class.forName("java.lang.Thread$Builder");
+      type.getMethod("name", String.class, long.class).invoke(builder,
+          "apgas-virtual-", 0L);
+      final ThreadFactory factory = (ThreadFactory) type.getMethod("factory")
+          .invoke(builder);
+      return (ExecutorService) Executors.class
+          .getMethod("newThreadPerTaskExecutor", ThreadFactory.class)
+          .invoke(null, factory);
+    } catch (final ReflectiveOperationException e) {
+      System.err.println("[APGAS] Unable to use virtual threads: " + e
+          + ". Using fork/join pool.");
+      return null;
+    }
+  }
+
+  /**
+   * Returns true if tasks run in virtual threads.
+   *
+   * @return true if this scheduler is virtual
+   */
+  public boolean isVirtual() {
+    return pool == null;
+  }
+
+  /**
+   * Returns the executor service running the tasks.
+   *
+   * @return the executor service
+   */
+  ExecutorService executor() {
+    return executor;
+  }
+
+  /**
+   * Submits a task.
+   *
+   * @param task
+   *          the task
+   */
+  void execute(ForkJoinTask<?> task) {
+    if (pool != null) {
+      pool.execute(task);
+      return;
+    }
+    executor.execute(() -> {
+      running.incrementAndGet();
+      try {
+        Context.enter(runtime);
+        task.quietlyInvoke();
+      } finally {
+        running.decrementAndGet();
+      }
+    });
+  }
+
+  /**
+   * Initiates an orderly shutdown.
+   */
+  void shutdown() {
+    executor.shutdown();
+  }
+
+  /**
+   * Blocks the current thread, letting the pool compensate if the current
+   * thread is a worker of this scheduler.
+   * <p>
+   * A blocked virtual thread releases its carrier thread unless pinned.
+   *
+   * @param blocker
+   *          the blocker
+   * @throws InterruptedException
+   *           if interrupted while blocking
+   */
+  void block(ForkJoinPool.ManagedBlocker blocker)
+      throws InterruptedException {
+    final Context context = Context.current();
+    if (context == null || context.runtime != runtime) {
+      ForkJoinPool.managedBlock(blocker);
+      return;
+    }
+    blocked.incrementAndGet();
+    try {
+      ForkJoinPool.managedBlock(blocker);
+    } finally {
+      blocked.decrementAndGet();
+    }
+  }
+
+  /**
+   * Returns the target number of active workers.
+   *
+   * @return the parallelism
+   */
+  public int getParallelism() {
+    return parallelism;
+  }
+
+  /**
+   * Returns the maximal number of workers.
+   *
+   * @return the maximal number of workers
+   */
+  public int getMaxThreads() {
+    return maxThreads;
+  }
+
+  /**
+   * Returns the number of workers.
+   * <p>
+   * If tasks run in virtual threads, this is the number of virtual threads.
+   *
+   * @return the number of started workers that have not terminated yet
+   */
+  public int getWorkerCount() {
+    return pool == null ? running.get() : pool.getPoolSize();
+  }
+
+  /**
+   * Returns an estimate of the number of workers running tasks, blocked or
+   * not.
+   *
+   * @return the number of active workers
+   */
+  public int getActiveCount() {
+    return pool == null ? running.get() : pool.getActiveThreadCount();
+  }
+
+  /**
+   * Returns the number of workers blocked, e.g., waiting for a finish.
+   *
+   * @return the number of blocked workers
+   */
+  public int getBlockedCount() {
+    return blocked.get();
+  }
+
+  /**
+   * Returns the number of workers in excess of the target parallelism.
+   *
+   * @return the number of compensation workers
+   */
+  public int getCompensatingCount() {
+    return pool == null ? 0 : Math.max(0, pool.getPoolSize() - parallelism);
+  }
+
+  @Override
+  public String toString() {
+    return (pool == null ? "virtual, " : "") + "parallelism: " + parallelism
+        + ", workers: " + getWorkerCount() + ", active: " + getActiveCount()
+        + ", blocked: " + getBlockedCount() + ", compensating: "
+        + getCompensatingCount();
+  }
+}
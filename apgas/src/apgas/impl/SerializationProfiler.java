@@ -0,0 +1,366 @@
+/*
+ *  This file is part of the X10 project (http://x10-lang.org).
+ *
+ *  This file is licensed to You under the Eclipse Public License (EPL);
+ *  You may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *      http://www.opensource.org/licenses/eclipse-1.0.php
+ *
+ *  (C) Copyright IBM Corporation 2006-2016.
+ */
+
+package apgas.impl;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The {@link SerializationProfiler} class records the serialized size and the
+ * serialization and deserialization times of the objects sent between places.
+ * <p>
+ * Statistics are kept per class in three tables: the top-level messages
+ * handled by the transports, the jobs of tasks, and the values captured by
+ * lambdas. Sizes of jobs and captured values are only available with Kryo
+ * serialization.
+ * <p>
+ * Profiling is off unless {@link Config#APGAS_SERIALIZATION_PROFILE} is set
+ * to a sampling rate between 0 and 1. Each serialization or deserialization
+ * event is then recorded with this probability. The statistics of the JVM are
+ * printed to System.err at shutdown.
+ */
+public final class SerializationProfiler {
+  /**
+   * The statistics for a class.
+   */
+  public static final class Stats {
+    /**
+     * The number of sampled serializations.
+     */
+    private final LongAdder serialized = new LongAdder();
+
+    /**
+     * The number of bytes produced by the sampled serializations.
+     */
+    private final LongAdder serializedBytes = new LongAdder();
+
+    /**
+     * The time spent in the sampled serializations in nanoseconds.
+     */
+    private final LongAdder serializeNanos = new LongAdder();
+
+    /**
+     * The number of sampled deserializations.
+     */
+    private final LongAdder deserialized = new LongAdder();
+
+    /**
+     * The number of bytes consumed by the sampled deserializations.
+     */
+    private final LongAdder deserializedBytes = new LongAdder();
+
+    /**
+     * The time spent in the sampled deserializations in nanoseconds.
+     */
+    private final LongAdder deserializeNanos = new LongAdder();
+
+    /**
+     * Returns the number of sampled serializations.
+     *
+     * @return the count
+     */
+    public long getSerialized() {
+      return serialized.sum();
+    }
+
+    /**
+     * Returns the number of bytes produced by the sampled serializations.
+     *
+     * @return the byte count
+     */
+    public long getSerializedBytes() {
+      return serializedBytes.sum();
+    }
+
+    /**
+     * Returns the time spent in the sampled serializations.
+     *
+     * @return the time in nanoseconds
+     */
+    public long getSerializeNanos() {
+      return serializeNanos.sum();
+    }
+
+    /**
+     * Returns the number of sampled deserializations.
+     *
+     * @return the count
+     */
+    public long getDeserialized() {
+      return deserialized.sum();
+    }
+
+    /**
+     * Returns the number of bytes consumed by the sampled deserializations.
+     *
+     * @return the byte count
+     */
+    public long getDeserializedBytes() {
+      return deserializedBytes.sum();
+    }
+
+    /**
+     * Returns the time spent in the sampled deserializations.
+     *
+     * @return the time in nanoseconds
+     */
+    public long getDeserializeNanos() {
+      return deserializeNanos.sum();
+    }
+
+    @Override
+    public String toString() {
+      final long out = getSerialized();
+      final long in = getDeserialized();
+      return "out: " + out + " sampled, " + getSerializedBytes() + " bytes, "
+          + (out == 0 ? 0 : getSerializeNanos() / out) + " ns avg; in: " + in
+          + " sampled, " + getDeserializedBytes() + " bytes, "
+          + (in == 0 ? 0 : getDeserializeNanos() / in) + " ns avg";
+    }
+  }
+
+  /**
+   * The sampling rate.
+   */
+  private static final double rate = rate();
+
+  /**
+   * The statistics of the top-level messages indexed by class.
+   */
+  static final Map<Class<?>, Stats> messages = new ConcurrentHashMap<>();
+
+  /**
+   * The statistics of the jobs of tasks indexed by class.
+   */
+  static final Map<Class<?>, Stats> jobs = new ConcurrentHashMap<>();
+
+  /**
+   * The statistics of the values captured by lambdas indexed by class.
+   */
+  static final Map<Class<?>, Stats> captures = new ConcurrentHashMap<>();
+
+  static {
+    if (rate > 0) {
+      Runtime.getRuntime()
+          .addShutdownHook(new Thread(() -> dump(System.err)));
+    }
+  }
+
+  /**
+   * Prevents instantiation.
+   */
+  private SerializationProfiler() {
+  }
+
+  /**
+   * Parses the sampling rate.
+   *
+   * @return the sampling rate
+   */
+  private static double rate() {
+    final String value = System
+        .getProperty(Config.APGAS_SERIALIZATION_PROFILE);
+    if (value == null) {
+      return 0;
+    }
+    try {
+      return Math.min(1, Math.max(0, Double.parseDouble(value)));
+    } catch (final NumberFormatException e) {
+      System.err.println("[APGAS] Invalid serialization profiling rate: "
+          + value + ". Disabling serialization profiling.");
+      return 0;
+    }
+  }
+
+  /**
+   * Decides whether to sample the event about to start.
+   *
+   * @return the current time in nanoseconds if sampled, -1 otherwise
+   */
+  static long start() {
+    if (rate == 0
+        || rate < 1 && ThreadLocalRandom.current().nextDouble() >= rate) {
+      return -1;
+    }
+    return System.nanoTime();
+  }
+
+  /**
+   * Records a serialization if sampled.
+   *
+   * @param table
+   *          the statistics table
+   * @param object
+   *          the serialized object
+   * @param bytes
+   *          the serialized size or -1 if unknown
+   * @param start
+   *          the value returned by {@link #start()}
+   */
+  static void serialized(Map<Class<?>, Stats> table, Object object,
+      long bytes, long start) {
+    if (start < 0 || object == null) {
+      return;
+    }
+    final Stats stats = stats(table, object);
+    stats.serializeNanos.add(System.nanoTime() - start);
+    stats.serialized.increment();
+    if (bytes >= 0) {
+      stats.serializedBytes.add(bytes);
+    }
+  }
+
+  /**
+   * Records a deserialization if sampled.
+   *
+   * @param table
+   *          the statistics table
+   * @param object
+   *          the deserialized object
+   * @param bytes
+   *          the serialized size or -1 if unknown
+   * @param start
+   *          the value returned by {@link #start()}
+   */
+  static void deserialized(Map<Class<?>, Stats> table, Object object,
+      long bytes, long start) {
+    if (start < 0 || object == null) {
+      return;
+    }
+    final Stats stats = stats(table, object);
+    stats.deserializeNanos.add(System.nanoTime() - start);
+    stats.deserialized.increment();
+    if (bytes >= 0) {
+      stats.deserializedBytes.add(bytes);
+    }
+  }
+
+  /**
+   * Returns the statistics for the class of an object.
+   *
+   * @param table
+   *          the statistics table
+   * @param object
+   *          the object
+   * @return the statistics
+   */
+  private static Stats stats(Map<Class<?>, Stats> table, Object object) {
+    final Class<?> type = object.getClass();
+    final Stats stats = table.get(type);
+    return stats != null ? stats
+        : table.computeIfAbsent(type, k -> new Stats());
+  }
+
+  /**
+   * Returns true if serialization profiling is enabled.
+   *
+   * @return true if the sampling rate is positive
+   */
+  public static boolean isEnabled() {
+    return rate > 0;
+  }
+
+  /**
+   * Returns the sampling rate.
+   *
+   * @return the sampling rate
+   */
+  public static double getRate() {
+    return rate;
+  }
+
+  /**
+   * Returns the statistics of the top-level messages of this JVM.
+   *
+   * @return the statistics indexed by class
+   */
+  public static Map<Class<?>, Stats> getMessages() {
+    return Collections.unmodifiableMap(messages);
+  }
+
+  /**
+   * Returns the statistics of the jobs of tasks of this JVM.
+   *
+   * @return the statistics indexed by class
+   */
+  public static Map<Class<?>, Stats> getJobs() {
+    return Collections.unmodifiableMap(jobs);
+  }
+
+  /**
+   * Returns the statistics of the values captured by lambdas of this JVM.
+   *
+   * @return the statistics indexed by class
+   */
+  public static Map<Class<?>, Stats> getCaptures() {
+    return Collections.unmodifiableMap(captures);
+  }
+
+  /**
+   * Discards all statistics.
+   */
+  public static void reset() {
+    messages.clear();
+    jobs.clear();
+    captures.clear();
+  }
+
+  /**
+   * Prints the statistics, heaviest classes first.
+   *
+   * @param out
+   *          the print stream
+   */
+  public static void dump(PrintStream out) {
+    out.println("[APGAS] Serialization profile (sampling rate " + rate + ")");
+    dump(out, "messages", messages);
+    dump(out, "jobs", jobs);
+    dump(out, "captured values", captures);
+  }
+
+  /**
+   * Prints a statistics table.
+   *
+   * @param out
+   *          the print stream
+   * @param name
+   *          the name of the table
+   * @param table
+   *          the table
+   */
+  private static void dump(PrintStream out, String name,
+      Map<Class<?>, Stats> table) {
+    final List<Map.Entry<Class<?>, Stats>> entries = new ArrayList<>(
+        table.entrySet());
+    entries.sort((a, b) -> {
+      final Stats x = a.getValue();
+      final Stats y = b.getValue();
+      final int c = Long.compare(
+          y.getSerializedBytes() + y.getDeserializedBytes(),
+          x.getSerializedBytes() + x.getDeserializedBytes());
+      return c != 0 ? c
+          : Long.compare(y.getSerializeNanos() + y.getDeserializeNanos(),
+              x.getSerializeNanos() + x.getDeserializeNanos());
+    });
+    out.println("[APGAS]   " + name + ":");
+    for (final Map.Entry<Class<?>, Stats> entry : entries) {
+      out.println("[APGAS]     " + entry.getKey().getName() + ": "
+          + entry.getValue());
+    }
+  }
+}
@@ -0,0 +1,124 @@
+/*
+ *  This file is part of the X10 project (http://x10-lang.org).
+ *
+ *  This file is licensed to You under the Eclipse Public License (EPL);
+ *  You may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *      http://www.opensource.org/licenses/eclipse-1.0.php
+ *
+ *  (C) Copyright IBM Corporation 2006-2016.
+ */
+
+package apgas.impl;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+
+import apgas.SerializableJob;
+
+/**
+ * The {@link SerializedJob} class represents a job serialized ahead of time
+ * so that it may be sent to many places without being serialized again.
+ * <p>
+ * The wrapped job is deserialized and run when this job is run. Each place
+ * gets its own copy of the job. Tasks also wrap their jobs on the wire so
+ * that the transport threads only deserialize the task headers, leaving the
+ * deserialization of the jobs to the workers.
+ */
+final class SerializedJob implements SerializableJob {
+  private static final long serialVersionUID = 5063432788929262391L;
+
+  /**
+   * True if the jobs of tasks are wrapped on the wire.
+   */
+  private static final boolean LAZY = Boolean.parseBoolean(
+      System.getProperty(Config.APGAS_SERIALIZATION_LAZY, "false"));
+
+  /**
+   * The serialized job.
+   */
+  private final byte[] data;
+
+  /**
+   * Constructs a new {@link SerializedJob}.
+   *
+   * @param data
+   *          the serialized job
+   */
+  private SerializedJob(byte[] data) {
+    this.data = data;
+  }
+
+  /**
+   * Serializes a job using the serialization framework of a transport.
+   * <p>
+   * The serialization is recorded by the {@link SerializationProfiler} under
+   * the class of the job.
+   *
+   * @param transport
+   *          the transport
+   * @param f
+   *          the job
+   * @return the serialized job
+   * @throws UncheckedIOException
+   *           if Java serialization fails
+   */
+  static SerializedJob of(Transport transport, Object f) {
+    final long start = SerializationProfiler.start();
+    final Output output = new Output(256, -1);
+    try {
+      transport.write(output, f);
+    } catch (final IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    SerializationProfiler.serialized(SerializationProfiler.jobs, f,
+        output.position(), start);
+    return new SerializedJob(output.toBytes());
+  }
+
+  /**
+   * Returns the object to serialize in place of the job of a task.
+   *
+   * @param f
+   *          the job of the task
+   * @return the job wrapped in a {@link SerializedJob} unless disabled by
+   *         {@link Config#APGAS_SERIALIZATION_LAZY} or already wrapped
+   * @throws UncheckedIOException
+   *           if Java serialization fails
+   */
+  static Object wrap(Object f) {
+    if (!LAZY || f instanceof SerializedJob) {
+      return f;
+    }
+    return of(GlobalRuntimeImpl.getRuntime().transport, f);
+  }
+
+  /**
+   * Deserializes and runs the wrapped job.
+   * <p>
+   * The deserialization is recorded by the {@link SerializationProfiler}
+   * under the class of the wrapped job. Deserialization failures are logged
+   * to System.err if APGAS_VERBOSE_SERIALIZATION is set and rethrown.
+   */
+  @Override
+  public void run() throws Exception {
+    final GlobalRuntimeImpl runtime = GlobalRuntimeImpl.getRuntime();
+    final SerializableJob f;
+    try {
+      final long start = SerializationProfiler.start();
+      f = (SerializableJob) runtime.transport.read(new Input(data));
+      SerializationProfiler.deserialized(SerializationProfiler.jobs, f,
+          data.length, start);
+    } catch (final Exception e) {
+      if (runtime.verboseSerialization) {
+        System.err.println("[APGAS] Failed to receive a job at place "
+            + runtime.here + " due to: " + e);
+      }
+      throw e;
+    }
+    f.run();
+  }
+}
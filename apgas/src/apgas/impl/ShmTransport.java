@@ -0,0 +1,764 @@
+/*
+ *  This file is part of the X10 project (http://x10-lang.org).
+ *
+ *  This file is licensed to You under the Eclipse Public License (EPL);
+ *  You may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *      http://www.opensource.org/licenses/eclipse-1.0.php
+ *
+ *  (C) Copyright IBM Corporation 2006-2016.
+ */
+
+package apgas.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import com.esotericsoftware.kryo.io.ByteBufferInput;
+import com.esotericsoftware.kryo.io.ByteBufferOutput;
+import com.esotericsoftware.kryo.util.UnsafeUtil;
+import com.hazelcast.core.IMap;
+import com.hazelcast.core.Member;
+
+import apgas.DeadPlaceException;
+import apgas.Place;
+import sun.misc.Unsafe;
+
+/**
+ * The {@link ShmTransport} class implements active messages between places
+ * running on the same host via shared memory.
+ * <p>
+ * Each ordered pair of co-located places shares a ring buffer per lane backed
+ * by a memory-mapped file in {@link Config#APGAS_TRANSPORT_SHM_DIR}. A ring
+ * has a single consumer thread and producers take turn using the ring's lock,
+ * so head and tail are updated without atomic read-modify-write instructions.
+ * Each lane has its own receiver thread, so that control messages are never
+ * stuck behind large tasks. Control rings are a quarter of the size of bulk
+ * rings.
+ * <p>
+ * Places are co-located if the addresses of their Hazelcast members share the
+ * same IP, i.e., if they were launched on the same hostfile entry. Messages
+ * to other places as well as messages too large for a ring go through
+ * {@link Transport}.
+ */
+public class ShmTransport extends Transport {
+  private static final String APGAS_SHM = "apgas:shm";
+
+  /**
+   * The number of times an idle thread yields before parking.
+   */
+  private static final int SPINS = 100;
+
+  /**
+   * The initial park duration of an idle thread in nanoseconds.
+   */
+  private static final long MIN_PARK = 50000;
+
+  /**
+   * The number of doublings from {@link #MIN_PARK} to {@link #MAX_PARK}.
+   */
+  private static final int PARK_STEPS = 5;
+
+  /**
+   * The maximal park duration of an idle thread in nanoseconds (1.6ms).
+   */
+  private static final long MAX_PARK = MIN_PARK << PARK_STEPS;
+
+  /**
+   * The initial period between scans for new co-located places in
+   * nanoseconds.
+   */
+  private static final long MIN_SCAN = 100000000L;
+
+  /**
+   * The maximal period between scans for new co-located places in
+   * nanoseconds.
+   */
+  private static final long MAX_SCAN = 1600000000L;
+
+  /**
+   * Ordered accesses to off-heap memory.
+   * <p>
+   * Java 8 has no public API for ordered accesses to a mapped buffer or for
+   * the address of a direct buffer, so the ring indices go through
+   * {@code sun.misc.Unsafe}, which Kryo already depends on. Eclipse's access
+   * restriction warnings are suppressed for this class only. javac reports
+   * the use of an internal API regardless.
+   */
+  @SuppressWarnings("restriction")
+  private static final class Memory {
+    /**
+     * The Unsafe instance.
+     */
+    private static final Unsafe UNSAFE = UnsafeUtil.unsafe();
+
+    /**
+     * The offset of the address field of direct buffers.
+     */
+    private static final long ADDRESS = addressOffset();
+
+    /**
+     * Returns the offset of the address field of direct buffers.
+     * <p>
+     * {@code objectFieldOffset} is deprecated since Java 18 in favor of
+     * VarHandles, which Java 8 lacks.
+     *
+     * @return the offset
+     */
+    @SuppressWarnings("deprecation")
+    private static long addressOffset() {
+      try {
+        return UNSAFE
+            .objectFieldOffset(Buffer.class.getDeclaredField("address"));
+      } catch (final NoSuchFieldException e) {
+        throw new ExceptionInInitializerError(e);
+      }
+    }
+
+    /**
+     * Returns the address of a direct buffer.
+     *
+     * @param buffer
+     *          the buffer
+     * @return the address of the first byte of the buffer
+     */
+    private static long address(Buffer buffer) {
+      return UNSAFE.getLong(buffer, ADDRESS);
+    }
+
+    /**
+     * Reads a long with plain semantics.
+     *
+     * @param address
+     *          the address
+     * @return the value
+     */
+    private static long get(long address) {
+      return UNSAFE.getLong(null, address);
+    }
+
+    /**
+     * Reads a long with acquire semantics.
+     *
+     * @param address
+     *          the address
+     * @return the value
+     */
+    private static long getAcquire(long address) {
+      return UNSAFE.getLongVolatile(null, address);
+    }
+
+    /**
+     * Writes a long with release semantics.
+     *
+     * @param address
+     *          the address
+     * @param value
+     *          the value
+     */
+    private static void setRelease(long address, long value) {
+      UNSAFE.putOrderedLong(null, address, value);
+    }
+  }
+
+  /**
+   * A single-consumer ring buffer in a memory-mapped file.
+   * <p>
+   * The consumer index (head) and the producer index (tail) are monotonic
+   * and live on separate cache lines at the beginning of the file. Records
+   * are 8-byte aligned and consist of a length followed by the serialized
+   * message. A negative length marks the padding at the end of the ring when
+   * a record does not fit.
+   */
+  private static final class Ring {
+    private static final int HEAD = 0;
+    private static final int TAIL = 64;
+    private static final int DATA = 128;
+
+    /**
+     * The file backing the ring.
+     */
+    private final File file;
+
+    /**
+     * The mapped file, kept reachable for the lifetime of the ring.
+     */
+    private final MappedByteBuffer mapped;
+
+    /**
+     * The address of the mapped file.
+     */
+    private final long address;
+
+    /**
+     * The data area of the ring.
+     */
+    private final ByteBuffer data;
+
+    /**
+     * The capacity of the data area, a power of two.
+     */
+    private final int capacity;
+
+    /**
+     * The index of the record after the last polled record. Only accessed by
+     * the consumer.
+     */
+    private long next;
+
+    /**
+     * Maps a ring, creating the backing file if needed.
+     *
+     * @param file
+     *          the backing file
+     * @param capacity
+     *          the capacity of the data area, a power of two
+     * @throws IOException
+     *           if the file cannot be mapped
+     */
+    private Ring(File file, int capacity) throws IOException {
+      this.file = file;
+      this.capacity = capacity;
+      try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+        if (raf.length() < DATA + capacity) {
+          raf.setLength(DATA + capacity); // zero filled
+        }
+        mapped = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0,
+            DATA + capacity);
+      }
+      address = Memory.address(mapped);
+      mapped.position(DATA);
+      data = mapped.slice();
+    }
+
+    /**
+     * Returns the size of a record.
+     *
+     * @param length
+     *          the length of the message
+     * @return the size of the record including its header and alignment
+     */
+    private static int size(int length) {
+      return (4 + length + 7) & ~7;
+    }
+
+    /**
+     * Appends a message to the ring if there is enough space.
+     *
+     * @param message
+     *          the message
+     * @return true if the message was appended
+     */
+    private synchronized boolean offer(ByteBuffer message) {
+      final int length = message.remaining();
+      final int size = size(length);
+      final long tail = Memory.get(address + TAIL);
+      final long head = Memory.getAcquire(address + HEAD);
+      int index = (int) (tail & (capacity - 1));
+      final int padding = capacity - index < size ? capacity - index : 0;
+      if (tail + padding + size - head > capacity) {
+        return false;
+      }
+      if (padding > 0) {
+        data.putInt(index, -1);
+        index = 0;
+      }
+      data.putInt(index, length);
+      final ByteBuffer buffer = data.duplicate();
+      buffer.position(index + 4);
+      buffer.put(message);
+      Memory.setRelease(address + TAIL, tail + padding + size);
+      return true;
+    }
+
+    /**
+     * Returns the next message in the ring or null if the ring is empty.
+     * <p>
+     * The message remains in the ring until {@link #release()} is invoked.
+     *
+     * @return a buffer holding the message
+     */
+    private ByteBuffer poll() {
+      long head = Memory.get(address + HEAD);
+      final long tail = Memory.getAcquire(address + TAIL);
+      if (head == tail) {
+        return null;
+      }
+      int index = (int) (head & (capacity - 1));
+      int length = data.getInt(index);
+      if (length < 0) {
+        head += capacity - index;
+        index = 0;
+        length = data.getInt(0);
+      }
+      next = head + size(length);
+      final ByteBuffer buffer = data.duplicate();
+      buffer.limit(index + 4 + length);
+      buffer.position(index + 4);
+      return buffer.slice();
+    }
+
+    /**
+     * Frees the space used by the last message returned by {@link #poll()}.
+     */
+    private void release() {
+      Memory.setRelease(address + HEAD, next);
+    }
+
+    /**
+     * Deletes the backing file. The mapping remains valid.
+     */
+    private void delete() {
+      file.delete();
+    }
+  }
+
+  /**
+   * The host and member UUID of the places in the form "ip/uuid" indexed by
+   * place ID.
+   */
+  private final IMap<Integer, String> hosts;
+
+  /**
+   * The IP of this place.
+   */
+  private final String host;
+
+  /**
+   * The UUID of the Hazelcast member for this place.
+   */
+  private final String uuid;
+
+  /**
+   * The directory of the ring files or null if shared memory is unavailable.
+   */
+  private final File dir;
+
+  /**
+   * The capacity of each bulk ring.
+   */
+  private final int capacity;
+
+  /**
+   * The outgoing rings indexed by destination place ID then lane.
+   */
+  private final Map<Integer, Ring[]> outbound = new ConcurrentHashMap<>();
+
+  /**
+   * The places on other hosts or without shared memory.
+   */
+  private final Set<Integer> remote = ConcurrentHashMap.newKeySet();
+
+  /**
+   * The incoming rings and receiver thread of a lane.
+   */
+  private static final class Receiver {
+    /**
+     * {@link Transport#CONTROL} or {@link Transport#BULK}.
+     */
+    private final int lane;
+
+    /**
+     * The incoming rings. Only accessed by the receiver thread until
+     * shutdown.
+     */
+    private final List<Ring> inbound = new ArrayList<>();
+
+    /**
+     * The places the receiver thread has checked for co-location.
+     */
+    private final Set<Integer> scanned = new HashSet<>();
+
+    /**
+     * The thread polling the incoming rings or null until the transport
+     * starts.
+     */
+    private Thread thread;
+
+    /**
+     * Constructs a {@link Receiver}.
+     *
+     * @param lane
+     *          {@link Transport#CONTROL} or {@link Transport#BULK}
+     */
+    private Receiver(int lane) {
+      this.lane = lane;
+    }
+  }
+
+  /**
+   * The pool of serialization buffers.
+   */
+  private final OutputPool outputs;
+
+  /**
+   * The thread pool for immediate messages.
+   */
+  private final ThreadPoolExecutor immediateThreads;
+
+  /**
+   * The receivers indexed by lane.
+   */
+  private final Receiver[] receivers = new Receiver[LANES];
+
+  /**
+   * False once shutdown is initiated.
+   */
+  private volatile boolean running = true;
+
+  /**
+   * Initializes the {@link ShmTransport} for this global runtime instance.
+   *
+   * @param runtime
+   *          the global runtime instance
+   * @param master
+   *          member to connect to or null
+   * @param localhost
+   *          the preferred ip address of this host or null
+   * @param compact
+   *          reduces thread creation if set
+   * @param kryo
+   *          use kryo serialization if set
+   */
+  public ShmTransport(GlobalRuntimeImpl runtime, String master,
+      String localhost, boolean compact, boolean kryo) {
+    super(runtime, master, localhost, compact, kryo);
+    final File dir = new File(
+        System.getProperty(Config.APGAS_TRANSPORT_SHM_DIR, "/dev/shm"));
+    if (dir.isDirectory() && dir.canWrite()) {
+      this.dir = dir;
+    } else {
+      System.err.println("[APGAS] Shared memory directory " + dir
+          + " is not available. Using default transport.");
+      this.dir = null;
+    }
+    capacity = Integer.highestOneBit(Math.max(64 * 1024,
+        Integer.getInteger(Config.APGAS_TRANSPORT_SHM_SIZE, 4 * 1024 * 1024)));
+    outputs = new OutputPool(64, 4096, 1 << 20,
+        Boolean.getBoolean(Config.APGAS_TRANSPORT_DIRECT));
+    final int immediates = Math.max(1,
+        Integer.getInteger(Config.APGAS_TRANSPORT_IMMEDIATE_THREADS, 2));
+    immediateThreads = new ThreadPoolExecutor(immediates, immediates, 0L,
+        TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(1024),
+        new ThreadPoolExecutor.CallerRunsPolicy());
+    final Member member = hazelcast.getCluster().getLocalMember();
+    host = member.getSocketAddress().getAddress().getHostAddress();
+    uuid = member.getUuid();
+    hosts = hazelcast.getMap(APGAS_SHM);
+    for (int lane = 0; lane < LANES; lane++) {
+      receivers[lane] = new Receiver(lane);
+    }
+  }
+
+  /**
+   * Publishes the host of this place and starts the receiver threads if
+   * shared memory is available.
+   */
+  @Override
+  protected synchronized void start() {
+    if (dir != null) {
+      hosts.set(here(), host + "/" + uuid);
+    }
+    super.start();
+    if (dir != null) {
+      for (final Receiver receiver : receivers) {
+        receiver.thread = new Thread(() -> receive(receiver),
+            receiver.lane == CONTROL ? "apgas-shm-control"
+                : "apgas-shm-receiver");
+        receiver.thread.setDaemon(true);
+        receiver.thread.start();
+      }
+    }
+  }
+
+  @Override
+  protected void send(int place, SerializableRunnable f) {
+    if (place != here()) {
+      final Ring[] rings = outbound(place);
+      if (rings != null && write(rings[lane(f)], place, f)) {
+        return;
+      }
+    }
+    super.send(place, f);
+  }
+
+  /**
+   * Returns the rings to a place if co-located.
+   *
+   * @param place
+   *          a remote place ID
+   * @return the rings indexed by lane or null if the place is not known to be
+   *         co-located
+   */
+  private Ring[] outbound(int place) {
+    final Ring[] rings = outbound.get(place);
+    if (rings != null || dir == null || remote.contains(place)) {
+      return rings;
+    }
+    synchronized (outbound) {
+      if (outbound.containsKey(place)) {
+        return outbound.get(place);
+      }
+      final String entry = hosts.get(place);
+      if (entry == null) {
+        return null; // not published yet or disabled, try again later
+      }
+      final int index = entry.indexOf('/');
+      if (!host.equals(entry.substring(0, index))) {
+        remote.add(place);
+        return null;
+      }
+      try {
+        final Ring[] tmp = new Ring[LANES];
+        for (int lane = 0; lane < LANES; lane++) {
+          tmp[lane] = new Ring(file(entry.substring(index + 1), here(), lane),
+              capacity(lane));
+        }
+        outbound.put(place, tmp);
+        return tmp;
+      } catch (final IOException e) {
+        System.err.println("[APGAS] Unable to map shared memory for place "
+            + place + ": " + e);
+        remote.add(place);
+        return null;
+      }
+    }
+  }
+
+  /**
+   * Returns the file backing the ring from a place to another on a lane.
+   *
+   * @param uuid
+   *          the UUID of the destination member
+   * @param place
+   *          the source place ID
+   * @param lane
+   *          the lane
+   * @return the file
+   */
+  private File file(String uuid, int place, int lane) {
+    return new File(dir, "apgas-" + uuid + "-" + place + "-" + lane);
+  }
+
+  /**
+   * Returns the capacity of the rings of a lane.
+   *
+   * @param lane
+   *          the lane
+   * @return the capacity in bytes, a power of two
+   */
+  private int capacity(int lane) {
+    return lane == CONTROL ? Math.max(64 * 1024, capacity / 4) : capacity;
+  }
+
+  /**
+   * Serializes a message and appends it to a ring, waiting for space if
+   * needed.
+   *
+   * @param ring
+   *          the ring
+   * @param place
+   *          the destination place
+   * @param f
+   *          the message
+   * @return false if the message does not fit in the ring
+   * @throws DeadPlaceException
+   *           if the place dies while waiting for space
+   */
+  private boolean write(Ring ring, int place, SerializableRunnable f) {
+    final ByteBufferOutput output = outputs.take();
+    try {
+      serializeTo(place, output, f);
+      final ByteBuffer buffer = output.getByteBuffer().duplicate();
+      buffer.limit(output.position());
+      buffer.position(0);
+      if (Ring.size(buffer.remaining()) > ring.capacity) {
+        return false;
+      }
+      for (int spins = 0; !ring.offer(buffer); spins++) {
+        if (!running || !isLive(place)) {
+          throw new DeadPlaceException(new Place(place));
+        }
+        idle(spins);
+      }
+      return true;
+    } catch (final IOException e) {
+      throw new UncheckedIOException(e);
+    } finally {
+      outputs.release(output);
+    }
+  }
+
+  /**
+   * Polls the incoming rings of a lane until shutdown, looking for new
+   * co-located places periodically.
+   * <p>
+   * The scan period doubles up to {@link #MAX_SCAN} while scans find no new
+   * place and resets when the number of places changes.
+   *
+   * @param receiver
+   *          the receiver of the lane
+   */
+  private void receive(Receiver receiver) {
+    final ByteBufferInput input = new ByteBufferInput();
+    long scan = 0;
+    long period = MIN_SCAN;
+    int places = 0;
+    int idle = 0;
+    while (running) {
+      boolean busy = false;
+      for (final Ring ring : receiver.inbound) {
+        final ByteBuffer message = ring.poll();
+        if (message != null) {
+          busy = true;
+          receive(receiver.lane, message, input);
+          ring.release();
+        }
+      }
+      if (busy) {
+        idle = 0;
+      } else {
+        idle(idle);
+        idle = Math.min(idle + 1, SPINS + PARK_STEPS);
+      }
+      final long now = System.nanoTime();
+      if (now - scan > period) {
+        scan = now;
+        final int scanned = receiver.scanned.size();
+        if (places != maxPlace()) {
+          places = maxPlace();
+          period = MIN_SCAN;
+        }
+        scan(receiver);
+        if (receiver.scanned.size() == scanned) {
+          period = Math.min(2 * period, MAX_SCAN);
+        }
+      }
+    }
+  }
+
+  /**
+   * Waits after a number of failed attempts to poll or offer, yielding at
+   * first then parking for exponentially longer, up to {@link #MAX_PARK}.
+   *
+   * @param attempts
+   *          the number of consecutive failed attempts so far
+   */
+  private static void idle(int attempts) {
+    if (attempts < SPINS) {
+      Thread.yield();
+    } else {
+      LockSupport
+          .parkNanos(MIN_PARK << Math.min(attempts - SPINS, PARK_STEPS));
+    }
+  }
+
+  /**
+   * Maps the incoming rings of a lane from the co-located places published
+   * since the last scan.
+   *
+   * @param receiver
+   *          the receiver of the lane
+   */
+  private void scan(Receiver receiver) {
+    for (int place = 0; place < maxPlace(); place++) {
+      if (place == here() || receiver.scanned.contains(place)) {
+        continue;
+      }
+      final String entry = hosts.get(place);
+      if (entry == null) {
+        if (!isLive(place)) {
+          receiver.scanned.add(place);
+        }
+        continue;
+      }
+      receiver.scanned.add(place);
+      if (host.equals(entry.substring(0, entry.indexOf('/')))) {
+        try {
+          receiver.inbound.add(new Ring(file(uuid, place, receiver.lane),
+              capacity(receiver.lane)));
+        } catch (final IOException e) {
+          System.err.println("[APGAS] Unable to map shared memory for place "
+              + place + ": " + e);
+        }
+      }
+    }
+  }
+
+  /**
+   * Deserializes a runnable in place and dispatches it.
+   * <p>
+   * Tasks are submitted directly to the pool of the global runtime. Other
+   * runnables, i.e., immediate messages, run in a bounded thread pool.
+   *
+   * @param lane
+   *          the lane of the runnable
+   * @param data
+   *          the serialized runnable starting at position zero
+   * @param input
+   *          the input of the receiving thread
+   */
+  private void receive(int lane, ByteBuffer data, ByteBufferInput input) {
+    final SerializableRunnable f;
+    try {
+      input.setBuffer(data);
+      f = (SerializableRunnable) deserialize(input);
+    } catch (final Exception e) {
+      e.printStackTrace();
+      return;
+    }
+    if (f instanceof ForkJoinTask || lane == BULK) {
+      try {
+        f.run();
+      } catch (final Throwable t) {
+        t.printStackTrace();
+      }
+    } else {
+      immediateThreads.execute(f);
+    }
+  }
+
+  /**
+   * Stops the receiver threads, deletes the ring files, and shuts down the
+   * Hazelcast instance.
+   */
+  @Override
+  protected synchronized void shutdown() {
+    running = false;
+    for (final Receiver receiver : receivers) {
+      try {
+        if (receiver.thread != null) {
+          receiver.thread.join(1000);
+        }
+      } catch (final InterruptedException e) {
+      }
+      for (final Ring ring : receiver.inbound) {
+        ring.delete();
+      }
+    }
+    for (final Ring[] rings : outbound.values()) {
+      for (final Ring ring : rings) {
+        ring.delete();
+      }
+    }
+    immediateThreads.shutdown();
+    super.shutdown();
+  }
+}
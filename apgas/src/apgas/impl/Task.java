@@ -14,11 +14,12 @@ package apgas.impl;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
-import java.util.concurrent.ForkJoinPool;
+import java.io.UncheckedIOException;
 import java.util.concurrent.ForkJoinTask;
 import java.util.concurrent.RecursiveAction;
 
 import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.KryoException;
 import com.esotericsoftware.kryo.KryoSerializable;
 import com.esotericsoftware.kryo.io.Input;
 import com.esotericsoftware.kryo.io.Output;
@@ -38,6 +39,12 @@ final class Task extends RecursiveAction
     implements SerializableRunnable, KryoSerializable {
   private static final long serialVersionUID = 5288338719050788305L;
 
+  /**
+   * The maximal number of nested finishes running other tasks on a worker
+   * while waiting, bounding the stack depth.
+   */
+  private static final int MAX_HELP_DEPTH = 128;
+
   /**
    * The finish object for this {@link Task} instance.
    */
@@ -53,6 +60,18 @@ final class Task extends RecursiveAction
    */
   int parent;
 
+  /**
+   * True if this task was spawned by the runtime itself and travels on the
+   * control lane.
+   */
+  boolean control;
+
+  /**
+   * True if this task was received from another place and has not started
+   * yet.
+   */
+  private transient boolean received;
+
   /**
    * Constructs a new {@link Task}.
    *
@@ -69,6 +88,33 @@ final class Task extends RecursiveAction
     this.parent = parent;
   }
 
+  /**
+   * Returns the job of this task.
+   *
+   * @return the job
+   */
+  Job job() {
+    return f;
+  }
+
+  /**
+   * Returns a task with the same job and parent place but another finish
+   * object.
+   * <p>
+   * Used to move a task between places running in the same JVM without
+   * serializing its job.
+   *
+   * @param finish
+   *          the finish object for the new task
+   * @return the new task
+   */
+  Task withFinish(Finish finish) {
+    final Task task = new Task(finish, f, parent);
+    task.control = control;
+    task.received = true;
+    return task;
+  }
+
   /**
    * Submits the task for asynchronous execution.
    */
@@ -86,8 +132,14 @@ final class Task extends RecursiveAction
    */
   @Override
   protected void compute() {
-    final Worker worker = (Worker) Thread.currentThread();
-    worker.task = this;
+    final Context context = Context.current();
+    context.task = this;
+    if (received) {
+      received = false;
+      if (!control) {
+        context.runtime.consumed(parent);
+      }
+    }
     try {
       f.run();
     } catch (final Throwable t) {
@@ -99,46 +151,56 @@ final class Task extends RecursiveAction
   /**
    * Runs the tasks, notify the task's finish upon termination, and wait for the
    * task's finish to terminate.
+   * <p>
+   * A worker runs other tasks while waiting, local tasks first, then stolen
+   * tasks, whatever their finish. It only blocks, possibly triggering the
+   * creation of a compensation worker, if no task is available.
    *
-   * @param worker
-   *          the worker thread running the task or null if not a worker thread
+   * @param context
+   *          the context of the current thread or null if the current thread
+   *          does not run tasks
    */
-  void finish(Worker worker) {
-    if (worker == null) {
-      async(worker);
+  void finish(Context context) {
+    if (context == null) {
+      async(context);
       try {
-        ForkJoinPool.managedBlock(finish);
+        GlobalRuntimeImpl.getRuntime().scheduler.block(finish);
       } catch (final InterruptedException e) {
       }
     } else {
-      final Task savedTask = worker.task;
+      final Task savedTask = context.task;
       compute();
-      Task t;
-      while (!finish.isReleasable()
-          && (t = (Task) ForkJoinTask.peekNextLocalTask()) != null
-          && finish == t.finish && t.tryUnfork()) {
-        t.compute();
+      if (context.worker && context.depth < MAX_HELP_DEPTH) {
+        context.depth++;
+        ForkJoinTask<?> t;
+        while (!finish.isReleasable() && (t = pollTask()) != null) {
+          t.quietlyInvoke();
+        }
+        context.depth--;
       }
       try {
-        ForkJoinPool.managedBlock(finish);
+        context.runtime.scheduler.block(finish);
       } catch (final InterruptedException e) {
       }
-      worker.task = savedTask;
+      context.task = savedTask;
     }
   }
 
   /**
    * Submits the task for asynchronous execution.
    *
-   * @param worker
-   *          the worker doing the submission or null if not a worker thread
+   * @param context
+   *          the context of the current thread or null if the current thread
+   *          does not run tasks
    */
-  void async(Worker worker) {
+  void async(Context context) {
     finish.submit(parent);
-    if (worker == null) {
+    if (context == null) {
       GlobalRuntimeImpl.getRuntime().execute(this);
-    } else {
+    } else if (context.worker) {
       fork();
+    } else {
+      context.runtime.execute(this);
     }
   }
 
@@ -154,7 +216,7 @@ final class Task extends RecursiveAction
    */
   void asyncAt(int p) {
     try {
-      GlobalRuntimeImpl.getRuntime().transport.send(p, this);
+      GlobalRuntimeImpl.getRuntime().send(p, this);
     } catch (final Throwable e) {
       finish.unspawn(p);
       if (GlobalRuntimeImpl.getRuntime().verboseSerialization
@@ -176,9 +238,23 @@ final class Task extends RecursiveAction
    *           if I/O errors occur
    */
   private void writeObject(ObjectOutputStream out) throws IOException {
-    out.writeObject(finish);
-    out.writeInt(parent);
-    out.writeObject(f);
+    final int header = TaskHeader.header(finish, control);
+    TaskHeader.write(out, header, finish, parent);
+    if ((header & TaskHeader.FINISH_MASK) == TaskHeader.OTHER_FINISH) {
+      out.writeObject(finish);
+    }
+    final Object job;
+    try {
+      job = SerializedJob.wrap(f);
+    } catch (final UncheckedIOException e) {
+      throw e.getCause();
+    }
+    final long start = SerializationProfiler.start();
+    out.writeObject(job);
+    if (!(job instanceof SerializedJob)) { // recorded when wrapped
+      SerializationProfiler.serialized(SerializationProfiler.jobs, f, -1,
+          start);
+    }
   }
 
   private static final SerializableJob NULL = () -> {
@@ -200,10 +276,21 @@ final class Task extends RecursiveAction
    */
   private void readObject(ObjectInputStream in)
       throws IOException, ClassNotFoundException {
-    finish = (Finish) in.readObject();
-    parent = in.readInt();
+    final int header = TaskHeader.readHeader(in);
+    control = (header & TaskHeader.CONTROL) != 0;
+    parent = TaskHeader.readVarInt(in);
+    finish = TaskHeader.readFinish(in, header);
+    if (finish == null) {
+      finish = (Finish) in.readObject();
+    }
+    received = true;
     try {
+      final long start = SerializationProfiler.start();
       f = (SerializableJob) in.readObject();
+      if (!(f instanceof SerializedJob)) { // recorded when run
+        SerializationProfiler.deserialized(SerializationProfiler.jobs, f, -1,
+            start);
+      }
     } catch (final Throwable e) {
       if (GlobalRuntimeImpl.getRuntime().verboseSerialization
           && !(e instanceof DeadPlaceException)) {
@@ -217,17 +304,48 @@ final class Task extends RecursiveAction
 
   @Override
   public void write(Kryo kryo, Output output) {
-    kryo.writeClassAndObject(output, finish);
-    output.writeInt(parent);
-    kryo.writeClassAndObject(output, f);
+    final int header = TaskHeader.header(finish, control);
+    try {
+      TaskHeader.write(output, header, finish, parent);
+    } catch (final IOException e) {
+      throw new KryoException(e);
+    }
+    if ((header & TaskHeader.FINISH_MASK) == TaskHeader.OTHER_FINISH) {
+      kryo.writeClassAndObject(output, finish);
+    }
+    final Object job = SerializedJob.wrap(f);
+    final long start = SerializationProfiler.start();
+    final long position = output.total();
+    kryo.writeClassAndObject(output, job);
+    if (!(job instanceof SerializedJob)) { // recorded when wrapped
+      SerializationProfiler.serialized(SerializationProfiler.jobs, f,
+          output.total() - position, start);
+    }
   }
 
   @Override
   public void read(Kryo kryo, Input input) {
-    finish = (Finish) kryo.readClassAndObject(input);
-    parent = input.readInt();
+    final int header;
     try {
+      header = TaskHeader.readHeader(input);
+      parent = TaskHeader.readVarInt(input);
+      finish = TaskHeader.readFinish(input, header);
+    } catch (final IOException e) {
+      throw new KryoException(e);
+    }
+    if (finish == null) {
+      finish = (Finish) kryo.readClassAndObject(input);
+    }
+    control = (header & TaskHeader.CONTROL) != 0;
+    received = true;
+    try {
+      final long start = SerializationProfiler.start();
+      final long position = input.total();
       f = (Job) kryo.readClassAndObject(input);
+      if (!(f instanceof SerializedJob)) { // recorded when run
+        SerializationProfiler.deserialized(SerializationProfiler.jobs, f,
+            input.total() - position, start);
+      }
     } catch (final Throwable e) {
       if (GlobalRuntimeImpl.getRuntime().verboseSerialization
           && !(e instanceof DeadPlaceException)) {
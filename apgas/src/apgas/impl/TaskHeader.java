@@ -0,0 +1,241 @@
+/*
+ *  This file is part of the X10 project (http://x10-lang.org).
+ *
+ *  This file is licensed to You under the Eclipse Public License (EPL);
+ *  You may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *      http://www.opensource.org/licenses/eclipse-1.0.php
+ *
+ *  (C) Copyright IBM Corporation 2006-2016.
+ */
+
+package apgas.impl;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StreamCorruptedException;
+
+import apgas.Place;
+import apgas.util.GlobalID;
+
+/**
+ * The {@link TaskHeader} class implements the wire format of the header of
+ * {@link Task} and {@link UncountedTask} instances for both Java and Kryo
+ * serialization.
+ * <p>
+ * The header starts with a byte combining a format version, a control flag,
+ * and the kind of finish of the task. It continues with the parent place of
+ * the task as a varint. Then, for default and resilient finishes, it has the
+ * home place and local ID of the finish as varints. Other finish objects are
+ * serialized in full after the header.
+ */
+final class TaskHeader {
+  /**
+   * The version of the wire format.
+   */
+  static final int VERSION = 1;
+
+  /**
+   * The position of the version in the first byte of the header.
+   */
+  private static final int VERSION_SHIFT = 5;
+
+  /**
+   * Kind of a task with no finish or a {@link NullFinish}.
+   */
+  static final int NULL_FINISH = 0;
+
+  /**
+   * Kind of a task governed by a {@link DefaultFinish}.
+   */
+  static final int DEFAULT_FINISH = 1;
+
+  /**
+   * Kind of a task governed by a {@link ResilientFinish}.
+   */
+  static final int RESILIENT_FINISH = 2;
+
+  /**
+   * Kind of a task governed by a finish serialized in full.
+   */
+  static final int OTHER_FINISH = 3;
+
+  /**
+   * The bits of the first byte of the header that encode the kind of finish.
+   */
+  static final int FINISH_MASK = 3;
+
+  /**
+   * The flag bit of a control task.
+   */
+  static final int CONTROL = 4;
+
+  /**
+   * Prevents instantiation.
+   */
+  private TaskHeader() {
+  }
+
+  /**
+   * Returns the first byte of the header of a task.
+   *
+   * @param finish
+   *          the finish of the task or null
+   * @param control
+   *          true if the task is a control task
+   * @return the first byte of the header
+   */
+  static int header(Finish finish, boolean control) {
+    final int kind;
+    if (finish == null || finish instanceof NullFinish) {
+      kind = NULL_FINISH;
+    } else if (finish instanceof DefaultFinish) {
+      kind = DEFAULT_FINISH;
+    } else if (finish.getClass() == ResilientFinish.class) {
+      kind = RESILIENT_FINISH;
+    } else {
+      kind = OTHER_FINISH;
+    }
+    return VERSION << VERSION_SHIFT | (control ? CONTROL : 0) | kind;
+  }
+
+  /**
+   * Writes the header of a task.
+   *
+   * @param out
+   *          the output stream
+   * @param header
+   *          the first byte of the header
+   * @param finish
+   *          the finish of the task or null
+   * @param parent
+   *          the place of the parent task
+   * @throws IOException
+   *           if I/O errors occur
+   */
+  static void write(OutputStream out, int header, Finish finish, int parent)
+      throws IOException {
+    out.write(header);
+    writeVarInt(out, parent);
+    GlobalID id;
+    switch (header & FINISH_MASK) {
+    case DEFAULT_FINISH:
+      final DefaultFinish f = (DefaultFinish) finish;
+      f.writeReplace();
+      id = f.id;
+      break;
+    case RESILIENT_FINISH:
+      id = ((ResilientFinish) finish).id;
+      break;
+    default:
+      return;
+    }
+    writeVarInt(out, id.home.id);
+    writeVarInt(out, id.lid);
+  }
+
+  /**
+   * Reads the first byte of the header of a task.
+   *
+   * @param in
+   *          the input stream
+   * @return the first byte of the header
+   * @throws IOException
+   *           if I/O errors occur or the version does not match
+   */
+  static int readHeader(InputStream in) throws IOException {
+    final int header = in.read();
+    if (header < 0) {
+      throw new EOFException();
+    }
+    if (header >>> VERSION_SHIFT != VERSION) {
+      throw new StreamCorruptedException(
+          "Unsupported task header version: " + (header >>> VERSION_SHIFT));
+    }
+    return header;
+  }
+
+  /**
+   * Reads the finish of a task from the header.
+   *
+   * @param in
+   *          the input stream
+   * @param header
+   *          the first byte of the header
+   * @return the finish, or null if serialized in full after the header
+   * @throws IOException
+   *           if I/O errors occur
+   */
+  static Finish readFinish(InputStream in, int header) throws IOException {
+    switch (header & FINISH_MASK) {
+    case NULL_FINISH:
+      return NullFinish.SINGLETON;
+    case DEFAULT_FINISH:
+      return DefaultFinish.resolve(readGlobalID(in));
+    case RESILIENT_FINISH:
+      final ResilientFinish finish = new ResilientFinish();
+      finish.id = readGlobalID(in);
+      return finish;
+    default:
+      return null;
+    }
+  }
+
+  /**
+   * Reads a {@link GlobalID} encoded as a pair of varints.
+   *
+   * @param in
+   *          the input stream
+   * @return the global ID
+   * @throws IOException
+   *           if I/O errors occur
+   */
+  private static GlobalID readGlobalID(InputStream in) throws IOException {
+    final int home = readVarInt(in);
+    return new GlobalID(new Place(home), readVarInt(in));
+  }
+
+  /**
+   * Writes an int using 1 to 5 bytes, fewer for small positive values.
+   *
+   * @param out
+   *          the output stream
+   * @param value
+   *          the value
+   * @throws IOException
+   *           if I/O errors occur
+   */
+  static void writeVarInt(OutputStream out, int value) throws IOException {
+    while ((value & ~0x7F) != 0) {
+      out.write(value & 0x7F | 0x80);
+      value >>>= 7;
+    }
+    out.write(value);
+  }
+
+  /**
+   * Reads an int written by {@link #writeVarInt(OutputStream, int)}.
+   *
+   * @param in
+   *          the input stream
+   * @return the value
+   * @throws IOException
+   *           if I/O errors occur
+   */
+  static int readVarInt(InputStream in) throws IOException {
+    int value = 0;
+    for (int shift = 0; shift < 35; shift += 7) {
+      final int b = in.read();
+      if (b < 0) {
+        throw new EOFException();
+      }
+      value |= (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) {
+        return value;
+      }
+    }
+    throw new StreamCorruptedException("Malformed varint");
+  }
+}
@@ -11,13 +11,22 @@
 
 package apgas.impl;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.UncheckedIOException;
 import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 
+import com.esotericsoftware.kryo.io.ByteBufferOutput;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
 import com.hazelcast.config.Config;
 import com.hazelcast.config.ExecutorConfig;
 import com.hazelcast.config.InMemoryFormat;
@@ -43,14 +52,36 @@ import apgas.Place;
 /**
  * The {@link Transport} class manages the Hazelcast cluster and implements
  * active messages.
+ * <p>
+ * Messages travel on one of two lanes. The {@link #CONTROL} lane carries
+ * immediate messages such as finish updates and the tasks spawned by the
+ * runtime itself. The {@link #BULK} lane carries user tasks. Each lane has its
+ * own coalescer and its own Hazelcast executor, so that control messages
+ * never wait behind bulk payloads.
  */
 public class Transport implements com.hazelcast.core.ItemListener<Member>,
     InitialMembershipListener {
   private static String APGAS = "apgas";
   private static String APGAS_PLACES = "apgas:places";
   private static String APGAS_EXECUTOR = "apgas:executor";
+  private static String APGAS_CONTROL = "apgas:control";
   private static String APGAS_FINISH = "apgas:finish";
 
+  /**
+   * The lane of runtime control messages.
+   */
+  public static final int CONTROL = 0;
+
+  /**
+   * The lane of user tasks.
+   */
+  public static final int BULK = 1;
+
+  /**
+   * The number of lanes.
+   */
+  public static final int LANES = 2;
+
   /**
    * The Hazelcast instance for this JVM.
    */
@@ -96,15 +127,39 @@ public class Transport implements com.hazelcast.core.ItemListener<Member>,
    */
   private String regItemListener;
   /**
-   * Executor service for sending active messages.
+   * Executor services for sending active messages indexed by lane.
    */
-  private final IExecutorService executor;
+  private final IExecutorService[] executors;
 
   /**
    * The global runtime instance to notify of new and dead places.
    */
   private final GlobalRuntimeImpl runtime;
 
+  /**
+   * The coalescers for outgoing serialized messages indexed by lane, null if
+   * coalescing is disabled.
+   */
+  @SuppressWarnings({ "unchecked", "rawtypes" })
+  private final Coalescer<byte[]>[] coalescers =
+      new Coalescer[LANES];
+
+  /**
+   * Uses Kryo if set, Java serialization otherwise.
+   */
+  protected final boolean kryo;
+
+  /**
+   * The compressor for outgoing messages or null if compression is disabled.
+   */
+  private final Compressor compressor;
+
+  /**
+   * The pool of serialization buffers for compression and coalescing or null
+   * if both are disabled.
+   */
+  private final OutputPool buffers;
+
   /**
    * Initializes the {@link HazelcastInstance} for this global runtime instance.
    *
@@ -122,6 +177,7 @@ public class Transport implements com.hazelcast.core.ItemListener<Member>,
   protected Transport(GlobalRuntimeImpl runtime, String master,
       String localhost, boolean compact, boolean kryo) {
     this.runtime = runtime;
+    this.kryo = kryo;
     // config
     final Config config = new Config();
     config.setProperty("hazelcast.logging.type", "none");
@@ -147,6 +203,7 @@ public class Transport implements com.hazelcast.core.ItemListener<Member>,
           new SerializerConfig().setTypeClass(SerializableRunnable.class)
               .setImplementation(new KryoSerializer()));
     }
+    Externalizers.configure(config.getSerializationConfig(), kryo);
 
     config.addMapConfig(
         new MapConfig(APGAS_FINISH).setInMemoryFormat(InMemoryFormat.OBJECT));
@@ -164,6 +221,12 @@ public class Transport implements com.hazelcast.core.ItemListener<Member>,
     config.setInstanceName(APGAS);
 
     hazelcast = Hazelcast.newHazelcastInstance(config);
+    if (kryo) {
+      // share class IDs with the cluster before this place becomes visible
+      ClassRegistry.install(new ClassRegistry(
+          hazelcast.<String, Integer> getMap(ClassRegistry.IDS),
+          hazelcast.<Integer, String> getMap(ClassRegistry.NAMES)));
+    }
     me = hazelcast.getCluster().getLocalMember();
 
     allMembers = hazelcast.getList(APGAS_PLACES);
@@ -177,13 +240,111 @@ public class Transport implements com.hazelcast.core.ItemListener<Member>,
     }
     here = id;
 
-    executor = hazelcast.getExecutorService(APGAS_EXECUTOR);
+    executors = new IExecutorService[LANES];
+    executors[CONTROL] = hazelcast.getExecutorService(APGAS_CONTROL);
+    executors[BULK] = hazelcast.getExecutorService(APGAS_EXECUTOR);
+
+    compressor = Compressor.enabled() ? new Compressor() : null;
+    buffers = compressor == null && !Coalescer.enabled() ? null
+        : new OutputPool(64, 4096, 1 << 20, false);
+  }
+
+  /**
+   * Initializes a transport that does not use Hazelcast.
+   * <p>
+   * Subclasses must override all the methods of this class that depend on
+   * Hazelcast.
+   *
+   * @param runtime
+   *          the global runtime instance
+   * @param here
+   *          the place ID for this global runtime instance
+   * @param kryo
+   *          use kryo serialization if set
+   */
+  protected Transport(GlobalRuntimeImpl runtime, int here, boolean kryo) {
+    this.runtime = runtime;
+    this.here = here;
+    this.kryo = kryo;
+    hazelcast = null;
+    me = null;
+    allMembers = null;
+    executors = null;
+    compressor = null;
+    buffers = null;
   }
 
   /**
-   * Starts monitoring cluster membership events.
+   * Returns the coalescer for outgoing messages on the bulk lane if any.
+   *
+   * @return the coalescer or null if coalescing is disabled
+   */
+  public Coalescer<?> getCoalescer() {
+    return getCoalescer(BULK);
+  }
+
+  /**
+   * Returns the coalescer for outgoing messages on a lane if any.
+   *
+   * @param lane
+   *          {@link #CONTROL} or {@link #BULK}
+   * @return the coalescer or null if coalescing is disabled
+   */
+  public Coalescer<?> getCoalescer(int lane) {
+    return coalescers[lane];
+  }
+
+  /**
+   * Returns the lane of a message.
+   * <p>
+   * Tasks travel on the bulk lane unless spawned by the runtime itself. Other
+   * messages travel on the control lane.
+   *
+   * @param f
+   *          the message
+   * @return {@link #CONTROL} or {@link #BULK}
+   */
+  public static int lane(SerializableRunnable f) {
+    if (f instanceof Task) {
+      return ((Task) f).control ? CONTROL : BULK;
+    }
+    return f instanceof UncountedTask ? BULK : CONTROL;
+  }
+
+  /**
+   * Returns the compressor for outgoing messages if any.
+   *
+   * @return the compressor or null if compression is disabled
+   */
+  public Compressor getCompressor() {
+    return compressor;
+  }
+
+  /**
+   * Creates the coalescer for outgoing messages on a lane.
+   * <p>
+   * Invoked by {@link #start()}. Transports that override
+   * {@link #send(int, SerializableRunnable)} and coalesce messages in their
+   * own format should return null and override {@link #getCoalescer(int)}.
+   *
+   * @param lane
+   *          {@link #CONTROL} or {@link #BULK}
+   * @return a new coalescer or null if coalescing is disabled
+   */
+  protected Coalescer<byte[]> newCoalescer(int lane) {
+    return Coalescer.enabled() ? new Coalescer<>(
+        (place, messages, bytes) -> sendBatch(lane, place, messages)) : null;
+  }
+
+  /**
+   * Starts the coalescers and monitoring cluster membership events.
+   * <p>
+   * The coalescers are created before any place becomes visible.
    */
   protected synchronized void start() {
+    for (int lane = 0; lane < LANES; lane++) {
+      coalescers[lane] = newCoalescer(lane);
+    }
     regItemListener = allMembers.addItemListener(this, false);
     regMembershipListener = hazelcast.getCluster().addMembershipListener(this);
   }
@@ -230,6 +391,11 @@ public class Transport implements com.hazelcast.core.ItemListener<Member>,
    * Shuts down this Hazelcast instance.
    */
   protected synchronized void shutdown() {
+    for (final Coalescer<?> coalescer : coalescers) {
+      if (coalescer != null) {
+        coalescer.shutdown();
+      }
+    }
     hazelcast.getCluster().removeMembershipListener(regMembershipListener);
     allMembers.removeItemListener(regItemListener);
     hazelcast.shutdown();
@@ -255,6 +421,9 @@ public class Transport implements com.hazelcast.core.ItemListener<Member>,
 
   /**
    * Executes a function at the given place.
+   * <p>
+   * Coalesced messages are serialized right away so that later changes to
+   * the objects they capture are not sent.
    *
    * @param place
    *          the requested place of execution
@@ -271,8 +440,281 @@ public class Transport implements com.hazelcast.core.ItemListener<Member>,
       if (member == null) {
         throw new DeadPlaceException(new Place(place));
       }
-      executor.executeOnMember(f, member);
+      final int lane = lane(f);
+      if (coalescers[lane] == null) {
+        execute(lane, place, member, f);
+        return;
+      }
+      final ByteBufferOutput output = buffers.take();
+      try {
+        serializeTo(place, output, f);
+        final byte[] data = output.toBytes();
+        coalescers[lane].add(place, data, data.length);
+      } catch (final IOException e) {
+        throw new UncheckedIOException(e);
+      } finally {
+        buffers.release(output);
+      }
+    }
+  }
+
+  /**
+   * Sends a batch of serialized messages to a place.
+   * <p>
+   * Messages for a place that died while they were buffered are dropped as if
+   * lost in transit.
+   *
+   * @param lane
+   *          the lane of the messages
+   * @param place
+   *          the destination place
+   * @param messages
+   *          the serialized messages
+   */
+  private void sendBatch(int lane, int place, List<byte[]> messages) {
+    final Member member = map.get(place);
+    if (member == null) {
+      return;
+    }
+    final List<SerializableRunnable> list = new ArrayList<>(messages.size());
+    for (final byte[] data : messages) {
+      list.add(new CompressedMessage(data, -1));
+    }
+    execute(lane, place, member,
+        list.size() == 1 ? list.get(0) : new Batch(list));
+  }
+
+  /**
+   * Sends a message to a member, compressing it if enabled.
+   * <p>
+   * If compression is enabled, bulk messages are serialized before being
+   * handed over to Hazelcast, so their size is known. Bulk messages below the
+   * compression threshold travel as their serialized bytes, which Hazelcast
+   * copies without serializing the message again. Control messages are never
+   * compressed and are handed over to Hazelcast directly.
+   *
+   * @param lane
+   *          the lane of the message
+   * @param place
+   *          the destination place
+   * @param member
+   *          the destination member
+   * @param f
+   *          the message
+   */
+  private void execute(int lane, int place, Member member,
+      SerializableRunnable f) {
+    final IExecutorService executor = executors[lane];
+    if (compressor == null || lane == CONTROL) {
+      // Hazelcast serializes the message in the calling thread
+      final int destination = kryo ? KryoSerializer.setDestination(place) : -1;
+      try {
+        executor.executeOnMember(f, member);
+      } finally {
+        if (kryo) {
+          KryoSerializer.setDestination(destination);
+        }
+      }
+      return;
+    }
+    final ByteBufferOutput output = buffers.take();
+    try {
+      serializeTo(place, output, f);
+      final CompressedMessage message = compress(place, output, 0);
+      executor.executeOnMember(message == null
+          ? new CompressedMessage(output.toBytes(), -1) : message, member);
+    } catch (final IOException e) {
+      throw new UncheckedIOException(e);
+    } finally {
+      buffers.release(output);
+    }
+  }
+
+  /**
+   * Returns true if the given place is a live member of the cluster.
+   *
+   * @param place
+   *          a place ID
+   * @return true if the place is live
+   */
+  protected boolean isLive(int place) {
+    return map.containsKey(place);
+  }
+
+  /**
+   * Serializes an object using the configured serialization framework.
+   * <p>
+   * Meant for transports that manage their own buffers.
+   *
+   * @param output
+   *          the output
+   * @param object
+   *          the object to serialize
+   * @throws IOException
+   *           if Java serialization fails
+   */
+  protected void serialize(Output output, Object object) throws IOException {
+    final long start = SerializationProfiler.start();
+    final long position = output.total();
+    write(output, object);
+    SerializationProfiler.serialized(SerializationProfiler.messages, object,
+        output.total() - position, start);
+  }
+
+  /**
+   * Serializes an object using the configured serialization framework
+   * without recording it as a message.
+   *
+   * @param output
+   *          the output
+   * @param object
+   *          the object to serialize
+   * @throws IOException
+   *           if Java serialization fails
+   */
+  void write(Output output, Object object) throws IOException {
+    if (kryo) {
+      KryoSerializer.writeObject(output, object);
+    } else {
+      final ObjectOutputStream oos = Externalizers
+          .newObjectOutputStream(output);
+      oos.writeObject(object);
+      oos.flush();
     }
+    output.flush();
+  }
+
+  /**
+   * Serializes an object for a place using the configured serialization
+   * framework.
+   * <p>
+   * Meant for transports that manage their own buffers. Kryo encodes the
+   * lambdas already known to the place compactly.
+   *
+   * @param place
+   *          the destination place
+   * @param output
+   *          the output
+   * @param object
+   *          the object to serialize
+   * @throws IOException
+   *           if Java serialization fails
+   */
+  protected void serializeTo(int place, Output output, Object object)
+      throws IOException {
+    if (!kryo) {
+      serialize(output, object);
+      return;
+    }
+    final int destination = KryoSerializer.setDestination(place);
+    try {
+      serialize(output, object);
+    } finally {
+      KryoSerializer.setDestination(destination);
+    }
+  }
+
+  /**
+   * Serializes a message for a place, compressing it if compression is
+   * enabled and pays off for this place.
+   * <p>
+   * Meant for transports that manage their own buffers. The message is
+   * appended to the output.
+   *
+   * @param place
+   *          the destination place
+   * @param output
+   *          the output
+   * @param f
+   *          the message
+   * @throws IOException
+   *           if Java serialization fails
+   */
+  protected void serialize(int place, ByteBufferOutput output,
+      SerializableRunnable f) throws IOException {
+    final int start = output.position();
+    serializeTo(place, output, f);
+    if (compressor != null) {
+      final CompressedMessage message = compress(place, output, start);
+      if (message != null) {
+        output.setPosition(start);
+        serialize(output, message);
+      }
+    }
+  }
+
+  /**
+   * Compresses the bytes of an output from a given position if above the
+   * compression threshold and if compression pays off for this place.
+   * <p>
+   * Heap buffers are compressed in place. Only the range is copied out of
+   * direct buffers.
+   *
+   * @param place
+   *          the destination place
+   * @param output
+   *          the output
+   * @param start
+   *          the position of the serialized message in the output
+   * @return the compressed message or null if not compressed
+   */
+  private CompressedMessage compress(int place, ByteBufferOutput output,
+      int start) {
+    final int length = output.position() - start;
+    if (!compressor.accepts(length)) {
+      return null;
+    }
+    final ByteBuffer buffer = output.getByteBuffer();
+    if (buffer.hasArray()) {
+      return compressor.compress(place, buffer.array(),
+          buffer.arrayOffset() + start, length);
+    }
+    final byte[] bytes = new byte[length];
+    final ByteBuffer range = buffer.duplicate();
+    range.limit(start + length);
+    range.position(start);
+    range.get(bytes);
+    return compressor.compress(place, bytes, 0, length);
+  }
+
+  /**
+   * Deserializes an object using the configured serialization framework.
+   * <p>
+   * Meant for transports that manage their own buffers.
+   *
+   * @param input
+   *          the input
+   * @return the deserialized object
+   * @throws IOException
+   *           if Java deserialization fails
+   * @throws ClassNotFoundException
+   *           if the class of the serialized object cannot be found
+   */
+  protected Object deserialize(Input input)
+      throws IOException, ClassNotFoundException {
+    final long start = SerializationProfiler.start();
+    final long position = input.total();
+    final Object object = read(input);
+    SerializationProfiler.deserialized(SerializationProfiler.messages, object,
+        input.total() - position, start);
+    return object;
+  }
+
+  /**
+   * Deserializes an object using the configured serialization framework
+   * without recording it as a message.
+   *
+   * @param input
+   *          the input
+   * @return the deserialized object
+   * @throws IOException
+   *           if Java deserialization fails
+   * @throws ClassNotFoundException
+   *           if the class of the serialized object cannot be found
+   */
+  Object read(Input input) throws IOException, ClassNotFoundException {
+    return kryo ? KryoSerializer.readObject(input)
+        : new ObjectInputStream(input).readObject();
   }
 
   private boolean live(String uuid) {
@@ -13,9 +13,12 @@ package apgas.impl;
 
 import java.io.IOException;
 import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.UncheckedIOException;
 import java.util.concurrent.RecursiveAction;
 
 import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.KryoException;
 import com.esotericsoftware.kryo.KryoSerializable;
 import com.esotericsoftware.kryo.io.Input;
 import com.esotericsoftware.kryo.io.Output;
@@ -39,14 +42,51 @@ final class UncountedTask extends RecursiveAction
    */
   private SerializableJob f;
 
+  /**
+   * The place of the parent task.
+   */
+  private int parent;
+
+  /**
+   * True if this task was received from another place and has not started
+   * yet.
+   */
+  private transient boolean received;
+
   /**
    * Constructs a new {@link UncountedTask}.
    *
    * @param f
    *          the function to run
+   * @param parent
+   *          the place of the parent task
    */
-  UncountedTask(SerializableJob f) {
+  UncountedTask(SerializableJob f, int parent) {
     this.f = f;
+    this.parent = parent;
+  }
+
+  /**
+   * Returns the job of this task.
+   *
+   * @return the job
+   */
+  SerializableJob job() {
+    return f;
+  }
+
+  /**
+   * Returns a task with the same job and parent place marked as received.
+   * <p>
+   * Used to move a task between places running in the same JVM without
+   * serializing its job.
+   *
+   * @return the new task
+   */
+  UncountedTask received() {
+    final UncountedTask task = new UncountedTask(f, parent);
+    task.received = true;
+    return task;
   }
 
   /**
@@ -60,8 +100,12 @@ final class UncountedTask extends RecursiveAction
   @Override
   protected void compute() {
     try {
-      final Worker worker = (Worker) Thread.currentThread();
-      worker.task = null;
+      final Context context = Context.current();
+      context.task = null;
+      if (received) {
+        received = false;
+        context.runtime.consumed(parent);
+      }
       f.run();
     } catch (final Throwable t) {
       System.err.println("[APGAS] Uncaught exception in uncounted task");
@@ -82,7 +126,7 @@ final class UncountedTask extends RecursiveAction
    */
   void uncountedAsyncAt(int p) {
     try {
-      GlobalRuntimeImpl.getRuntime().transport.send(p, this);
+      GlobalRuntimeImpl.getRuntime().send(p, this);
     } catch (final Throwable e) {
       if (GlobalRuntimeImpl.getRuntime().verboseSerialization
           && !(e instanceof DeadPlaceException)) {
@@ -93,6 +137,31 @@ final class UncountedTask extends RecursiveAction
     }
   }
 
+  /**
+   * Serializes the task.
+   *
+   * @param out
+   *          the object output stream
+   *
+   * @throws IOException
+   *           if I/O errors occur
+   */
+  private void writeObject(ObjectOutputStream out) throws IOException {
+    TaskHeader.write(out, TaskHeader.header(null, false), null, parent);
+    final Object job;
+    try {
+      job = SerializedJob.wrap(f);
+    } catch (final UncheckedIOException e) {
+      throw e.getCause();
+    }
+    final long start = SerializationProfiler.start();
+    out.writeObject(job);
+    if (!(job instanceof SerializedJob)) { // recorded when wrapped
+      SerializationProfiler.serialized(SerializationProfiler.jobs, f, -1,
+          start);
+    }
+  }
+
   private static final SerializableJob NULL = () -> {
   };
 
@@ -111,8 +180,16 @@ final class UncountedTask extends RecursiveAction
    */
   private void readObject(ObjectInputStream in)
       throws IOException, ClassNotFoundException {
+    TaskHeader.readHeader(in);
+    parent = TaskHeader.readVarInt(in);
+    received = true;
     try {
+      final long start = SerializationProfiler.start();
       f = (SerializableJob) in.readObject();
+      if (!(f instanceof SerializedJob)) { // recorded when run
+        SerializationProfiler.deserialized(SerializationProfiler.jobs, f, -1,
+            start);
+      }
     } catch (final Throwable e) {
       System.err.println(
           "[APGAS] Ignoring failure to receive an uncounted task at place "
@@ -123,13 +200,38 @@ final class UncountedTask extends RecursiveAction
 
   @Override
   public void write(Kryo kryo, Output output) {
-    kryo.writeClassAndObject(output, f);
+    try {
+      TaskHeader.write(output, TaskHeader.header(null, false), null, parent);
+    } catch (final IOException e) {
+      throw new KryoException(e);
+    }
+    final Object job = SerializedJob.wrap(f);
+    final long start = SerializationProfiler.start();
+    final long position = output.total();
+    kryo.writeClassAndObject(output, job);
+    if (!(job instanceof SerializedJob)) { // recorded when wrapped
+      SerializationProfiler.serialized(SerializationProfiler.jobs, f,
+          output.total() - position, start);
+    }
   }
 
   @Override
   public void read(Kryo kryo, Input input) {
     try {
+      TaskHeader.readHeader(input);
+      parent = TaskHeader.readVarInt(input);
+    } catch (final IOException e) {
+      throw new KryoException(e);
+    }
+    received = true;
+    try {
+      final long start = SerializationProfiler.start();
+      final long position = input.total();
       f = (SerializableJob) kryo.readClassAndObject(input);
+      if (!(f instanceof SerializedJob)) { // recorded when run
+        SerializationProfiler.deserialized(SerializationProfiler.jobs, f,
+            input.total() - position, start);
+      }
     } catch (final Throwable e) {
       System.err.println(
           "[APGAS] Ignoring failure to receive an uncounted task at place "
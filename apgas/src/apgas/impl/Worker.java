@@ -18,18 +18,21 @@ import java.util.concurrent.ForkJoinWorkerThread;
  * The {@link Worker} class implements a worker thread.
  */
 final class Worker extends ForkJoinWorkerThread {
+  /**
+   * The context of this worker.
+   */
+  final Context context;
+
   /**
    * Instantiates a Worker operating in the given pool.
    *
    * @param pool
    *          the pool this worker works in
+   * @param runtime
+   *          the global runtime instance this worker belongs to
    */
-  protected Worker(ForkJoinPool pool) {
+  protected Worker(ForkJoinPool pool, GlobalRuntimeImpl runtime) {
     super(pool);
+    context = new Context(runtime, true);
   }
-
-  /**
-   * The current task.
-   */
-  Task task;
 }
@@ -19,9 +19,23 @@ import java.util.concurrent.ForkJoinWorkerThread;
  * pool.
  */
 final class WorkerFactory implements ForkJoinPool.ForkJoinWorkerThreadFactory {
+  /**
+   * The global runtime instance the workers belong to.
+   */
+  private final GlobalRuntimeImpl runtime;
+
+  /**
+   * Constructs a factory for the workers of a global runtime instance.
+   *
+   * @param runtime
+   *          the global runtime instance
+   */
+  WorkerFactory(GlobalRuntimeImpl runtime) {
+    this.runtime = runtime;
+  }
 
   @Override
   public ForkJoinWorkerThread newThread(ForkJoinPool pool) {
-    return new Worker(pool);
+    return new Worker(pool, runtime);
   }
 }
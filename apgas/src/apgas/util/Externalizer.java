@@ -0,0 +1,68 @@
+/*
+ *  This file is part of the X10 project (http://x10-lang.org).
+ *
+ *  This file is licensed to You under the Eclipse Public License (EPL);
+ *  You may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *      http://www.opensource.org/licenses/eclipse-1.0.php
+ *
+ *  (C) Copyright IBM Corporation 2006-2016.
+ */
+
+package apgas.util;
+
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+
+/**
+ * The {@link Externalizer} interface is implemented by hand-written
+ * serializers for application types.
+ * <p>
+ * Externalizers are listed in the {@code apgas.serialization.externalizers}
+ * system property as a comma-separated list of class names. Each class must
+ * have a public no-argument constructor. The list must be the same at all
+ * places. An externalizer is used for the exact type it declares, whatever
+ * the serialization framework and transport, instead of the reflective
+ * serialization of the fields of the type.
+ * <p>
+ * Implementations must be thread-safe.
+ *
+ * @param <T>
+ *          the externalized type
+ */
+public interface Externalizer<T> {
+  /**
+   * Returns the externalized type.
+   *
+   * @return the class of the objects handled by this externalizer
+   */
+  Class<T> type();
+
+  /**
+   * Writes an object.
+   * <p>
+   * Nested objects may be written with {@link ObjectOutput#writeObject}.
+   *
+   * @param out
+   *          the output
+   * @param object
+   *          the object
+   * @throws IOException
+   *           if I/O errors occur
+   */
+  void write(ObjectOutput out, T object) throws IOException;
+
+  /**
+   * Reads an object written by {@link #write(ObjectOutput, Object)}.
+   *
+   * @param in
+   *          the input
+   * @return the object
+   * @throws IOException
+   *           if I/O errors occur
+   * @throws ClassNotFoundException
+   *           if the class of a nested object cannot be found
+   */
+  T read(ObjectInput in) throws IOException, ClassNotFoundException;
+}
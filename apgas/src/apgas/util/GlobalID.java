@@ -14,13 +14,16 @@ package apgas.util;
 import static apgas.Constructs.*;
 
 import java.io.Serializable;
+import java.util.AbstractMap;
 import java.util.Collection;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.Set;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import apgas.DeadPlaceException;
+import apgas.GlobalRuntime;
 import apgas.Place;
+import apgas.impl.GlobalRuntimeImpl;
 
 /**
  * The {@link GlobalID} class provides globally unique IDs and mechanisms to
@@ -38,8 +41,47 @@ public class GlobalID implements Serializable {
 
   /**
    * Internal map.
+   * <p>
+   * Delegates to the map of the current place.
+   *
+   * @deprecated use {@link #map()}
+   */
+  @Deprecated
+  protected static final Map<GlobalID, Object> map = new AbstractMap<GlobalID, Object>() {
+    @Override
+    public Object get(Object key) {
+      return map().get(key);
+    }
+
+    @Override
+    public Object put(GlobalID key, Object value) {
+      return map().put(key, value);
+    }
+
+    @Override
+    public Object remove(Object key) {
+      return map().remove(key);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+      return map().containsKey(key);
+    }
+
+    @Override
+    public Set<Map.Entry<GlobalID, Object>> entrySet() {
+      return map().entrySet();
+    }
+  };
+
+  /**
+   * Returns the internal map of the current place.
+   *
+   * @return the map
    */
-  protected static final Map<GlobalID, Object> map = new ConcurrentHashMap<>();
+  protected static Map<GlobalID, Object> map() {
+    return ((GlobalRuntimeImpl) GlobalRuntime.getRuntime()).getGlobalIDMap();
+  }
 
   /**
    * The {@link Place} where this {@link GlobalID} was instantiated.
@@ -71,6 +113,20 @@ public class GlobalID implements Serializable {
     lid = count.getAndIncrement();
   }
 
+  /**
+   * Reconstructs a {@link GlobalID} from its components, e.g., received from
+   * another place.
+   *
+   * @param home
+   *          the place where the global ID was instantiated
+   * @param lid
+   *          the local ID component of the global ID
+   */
+  public GlobalID(Place home, int lid) {
+    this.home = home;
+    this.lid = lid;
+  }
+
   /**
    * Associates the given value with this {@link GlobalID} instance.
    *
@@ -79,7 +135,7 @@ public class GlobalID implements Serializable {
    * @return the previous value
    */
   public Object putHere(Object value) {
-    final Object result = map.put(this, value == null ? NULL : value);
+    final Object result = map().put(this, value == null ? NULL : value);
     return result == NULL ? null : result;
   }
 
@@ -92,7 +148,7 @@ public class GlobalID implements Serializable {
    * @return the previous value
    */
   public Object putHereIfAbsent(Object value) {
-    final Object result = map.putIfAbsent(this, value == null ? NULL : value);
+    final Object result = map().putIfAbsent(this, value == null ? NULL : value);
     return result == NULL ? null : result;
   }
 
@@ -102,7 +158,7 @@ public class GlobalID implements Serializable {
    * @return the current value
    */
   public Object getHere() {
-    final Object result = map.get(this);
+    final Object result = map().get(this);
     return result == NULL ? null : result;
   }
 
@@ -115,7 +171,7 @@ public class GlobalID implements Serializable {
    * @return the current or default value
    */
   public Object getOrDefaultHere(Object defaultValue) {
-    final Object result = map.getOrDefault(this, defaultValue);
+    final Object result = map().getOrDefault(this, defaultValue);
     return result == NULL ? null : result;
   }
 
@@ -125,7 +181,7 @@ public class GlobalID implements Serializable {
    * @return the removed value
    */
   public Object removeHere() {
-    final Object result = map.remove(this);
+    final Object result = map().remove(this);
     return result == NULL ? null : result;
   }
 
@@ -140,10 +196,12 @@ public class GlobalID implements Serializable {
    */
   public void remove(Collection<? extends Place> places) {
     final GlobalID that = this;
+    final GlobalRuntimeImpl runtime = (GlobalRuntimeImpl) GlobalRuntime
+        .getRuntime();
     finish(() -> {
       for (final Place p : places) {
         try {
-          asyncAt(p, () -> {
+          runtime.controlAsyncAt(p, () -> {
             that.removeHere();
           });
         } catch (final DeadPlaceException e) {
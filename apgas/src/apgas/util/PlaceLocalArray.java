@@ -11,10 +11,21 @@
 
 package apgas.util;
 
+import static apgas.Constructs.*;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.util.Arrays;
 import java.util.Collection;
 
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.KryoSerializable;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+
 import apgas.Place;
+import apgas.SerializableJob;
 
 /**
  * The {@link PlaceLocalArray} class implements a map from places to arrays.
@@ -23,6 +34,12 @@ import apgas.Place;
  *          the type of the array elements
  */
 public class PlaceLocalArray<T> extends PlaceLocalObject {
+  /**
+   * The maximal number of elements transferred by a single task of
+   * {@link #asyncCopy}.
+   */
+  public static final int CHUNK = 1 << 12;
+
   /**
    * The local array.
    */
@@ -80,4 +97,209 @@ public class PlaceLocalArray<T> extends PlaceLocalObject {
     return PlaceLocalObject.make(places,
         () -> new PlaceLocalArray<>(Arrays.copyOf(array, localLength)));
   }
+
+  /**
+   * Copies a range of a local array into the local array of a place.
+   * <p>
+   * The copy is performed by asynchronous tasks, one per {@link #CHUNK}
+   * elements, that are counted by the enclosing finish. The elements are
+   * serialized directly from the source array and deserialized directly into
+   * the destination array. The source range must not be modified until the
+   * enclosing finish terminates.
+   *
+   * @param <T>
+   *          the type of the array elements
+   * @param src
+   *          the source array
+   * @param srcOffset
+   *          the index of the first element to copy
+   * @param dstPlace
+   *          the destination place
+   * @param dst
+   *          the destination place local array
+   * @param dstOffset
+   *          the index of the first element to overwrite at the destination
+   * @param length
+   *          the number of elements to copy
+   * @throws ArrayIndexOutOfBoundsException
+   *           if the source range is out of bounds
+   */
+  public static <T> void asyncCopy(T[] src, int srcOffset, Place dstPlace,
+      PlaceLocalArray<? super T> dst, int dstOffset, int length) {
+    if (srcOffset < 0 || length < 0 || srcOffset > src.length - length) {
+      throw new ArrayIndexOutOfBoundsException();
+    }
+    for (int i = 0; i < length; i += CHUNK) {
+      asyncAt(dstPlace, new Copy(dst.id, src, srcOffset + i, dstOffset + i,
+          Math.min(CHUNK, length - i)));
+    }
+  }
+
+  /**
+   * A task body copying a range of objects into the local array of a place.
+   */
+  private static final class Copy implements SerializableJob, KryoSerializable {
+    private static final long serialVersionUID = -5047926315470921718L;
+
+    /**
+     * The global ID of the destination place local array.
+     */
+    private GlobalID id;
+
+    /**
+     * The index of the first element to overwrite.
+     */
+    private int dstOffset;
+
+    /**
+     * The number of elements to copy.
+     */
+    private int length;
+
+    /**
+     * The source array or null once the elements are copied.
+     */
+    private transient Object[] src;
+
+    /**
+     * The index of the first element to copy.
+     */
+    private transient int srcOffset;
+
+    /**
+     * The exception raised when resolving the destination array if any.
+     */
+    private transient RuntimeException error;
+
+    /**
+     * Constructs a new {@link Copy} job.
+     *
+     * @param id
+     *          the global ID of the destination place local array
+     * @param src
+     *          the source array
+     * @param srcOffset
+     *          the index of the first element to copy
+     * @param dstOffset
+     *          the index of the first element to overwrite
+     * @param length
+     *          the number of elements to copy
+     */
+    Copy(GlobalID id, Object[] src, int srcOffset, int dstOffset,
+        int length) {
+      this.id = id;
+      this.src = src;
+      this.srcOffset = srcOffset;
+      this.dstOffset = dstOffset;
+      this.length = length;
+    }
+
+    /**
+     * Returns the destination array.
+     *
+     * @return the local array of the destination place local array or null if
+     *         the place local array does not exist here or the range is out of
+     *         bounds
+     */
+    private Object[] dst() {
+      final PlaceLocalArray<?> dst = (PlaceLocalArray<?>) id.getHere();
+      if (dst == null) {
+        error = new BadPlaceException();
+      } else if (dstOffset < 0 || dstOffset > dst.array.length - length) {
+        error = new ArrayIndexOutOfBoundsException();
+      } else {
+        return dst.array;
+      }
+      return null;
+    }
+
+    /**
+     * Copies the elements unless deserialization already did.
+     *
+     * @throws BadPlaceException
+     *           if the place local array does not exist here
+     * @throws ArrayIndexOutOfBoundsException
+     *           if the destination range is out of bounds
+     */
+    @Override
+    public void run() {
+      if (src != null) {
+        final Object[] dst = dst();
+        if (dst != null) {
+          System.arraycopy(src, srcOffset, dst, dstOffset, length);
+        }
+        src = null;
+      }
+      if (error != null) {
+        throw error;
+      }
+    }
+
+    /**
+     * Serializes the job.
+     *
+     * @param out
+     *          the object output stream
+     * @throws IOException
+     *           if I/O errors occur
+     */
+    private void writeObject(ObjectOutputStream out) throws IOException {
+      out.writeObject(id);
+      out.writeInt(dstOffset);
+      out.writeInt(length);
+      for (int i = srcOffset; i < srcOffset + length; i++) {
+        out.writeObject(src[i]);
+      }
+    }
+
+    /**
+     * Deserializes the job, storing the elements into the destination array.
+     *
+     * @param in
+     *          the object input stream
+     * @throws IOException
+     *           if I/O errors occur
+     * @throws ClassNotFoundException
+     *           if the class of the serialized object cannot be found
+     */
+    private void readObject(ObjectInputStream in)
+        throws IOException, ClassNotFoundException {
+      id = (GlobalID) in.readObject();
+      dstOffset = in.readInt();
+      length = in.readInt();
+      final Object[] dst = dst();
+      for (int i = dstOffset; i < dstOffset + length; i++) {
+        // consume even if dropped
+        final Object value = in.readObject();
+        if (dst != null) {
+          dst[i] = value;
+        }
+      }
+    }
+
+    @Override
+    public void write(Kryo kryo, Output output) {
+      kryo.writeClassAndObject(output, id);
+      output.writeInt(dstOffset);
+      output.writeInt(length);
+      for (int i = srcOffset; i < srcOffset + length; i++) {
+        kryo.writeClassAndObject(output, src[i]);
+      }
+    }
+
+    @Override
+    public void read(Kryo kryo, Input input) {
+      id = (GlobalID) kryo.readClassAndObject(input);
+      dstOffset = input.readInt();
+      length = input.readInt();
+      final Object[] dst = dst();
+      for (int i = dstOffset; i < dstOffset + length; i++) {
+        // consume even if dropped
+        final Object value = kryo.readClassAndObject(input);
+        if (dst != null) {
+          dst[i] = value;
+        }
+      }
+    }
+  }
 }
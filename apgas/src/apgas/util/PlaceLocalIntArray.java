@@ -11,15 +11,32 @@
 
 package apgas.util;
 
+import static apgas.Constructs.*;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.util.Collection;
 
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.KryoSerializable;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+
 import apgas.Place;
+import apgas.SerializableJob;
 
 /**
  * The {@link PlaceLocalIntArray} class implements a map from places to
  * {@code int} arrays.
  */
 public class PlaceLocalIntArray extends PlaceLocalObject {
+  /**
+   * The maximal number of elements transferred by a single task of
+   * {@link #asyncCopy}.
+   */
+  public static final int CHUNK = 1 << 14;
+
   /**
    * The local array.
    */
@@ -72,4 +89,205 @@ public class PlaceLocalIntArray extends PlaceLocalObject {
     return PlaceLocalObject.make(places,
         () -> new PlaceLocalIntArray(localLength));
   }
+
+  /**
+   * Copies a range of a local array into the local array of a place.
+   * <p>
+   * The copy is performed by asynchronous tasks, one per {@link #CHUNK}
+   * elements, that are counted by the enclosing finish. The elements are
+   * serialized directly from the source array and deserialized directly into
+   * the destination array. The source range must not be modified until the
+   * enclosing finish terminates.
+   *
+   * @param src
+   *          the source array
+   * @param srcOffset
+   *          the index of the first element to copy
+   * @param dstPlace
+   *          the destination place
+   * @param dst
+   *          the destination place local array
+   * @param dstOffset
+   *          the index of the first element to overwrite at the destination
+   * @param length
+   *          the number of elements to copy
+   * @throws ArrayIndexOutOfBoundsException
+   *           if the source range is out of bounds
+   */
+  public static void asyncCopy(int[] src, int srcOffset, Place dstPlace,
+      PlaceLocalIntArray dst, int dstOffset, int length) {
+    if (srcOffset < 0 || length < 0 || srcOffset > src.length - length) {
+      throw new ArrayIndexOutOfBoundsException();
+    }
+    for (int i = 0; i < length; i += CHUNK) {
+      asyncAt(dstPlace, new Copy(dst.id, src, srcOffset + i, dstOffset + i,
+          Math.min(CHUNK, length - i)));
+    }
+  }
+
+  /**
+   * A task body copying a range of {@code int} values into the local array of
+   * a place.
+   */
+  private static final class Copy implements SerializableJob, KryoSerializable {
+    private static final long serialVersionUID = 2998446924434387104L;
+
+    /**
+     * The global ID of the destination place local array.
+     */
+    private GlobalID id;
+
+    /**
+     * The index of the first element to overwrite.
+     */
+    private int dstOffset;
+
+    /**
+     * The number of elements to copy.
+     */
+    private int length;
+
+    /**
+     * The source array or null once the elements are copied.
+     */
+    private transient int[] src;
+
+    /**
+     * The index of the first element to copy.
+     */
+    private transient int srcOffset;
+
+    /**
+     * The exception raised when resolving the destination array if any.
+     */
+    private transient RuntimeException error;
+
+    /**
+     * Constructs a new {@link Copy} job.
+     *
+     * @param id
+     *          the global ID of the destination place local array
+     * @param src
+     *          the source array
+     * @param srcOffset
+     *          the index of the first element to copy
+     * @param dstOffset
+     *          the index of the first element to overwrite
+     * @param length
+     *          the number of elements to copy
+     */
+    Copy(GlobalID id, int[] src, int srcOffset, int dstOffset, int length) {
+      this.id = id;
+      this.src = src;
+      this.srcOffset = srcOffset;
+      this.dstOffset = dstOffset;
+      this.length = length;
+    }
+
+    /**
+     * Returns the destination array.
+     *
+     * @return the local array of the destination place local array or null if
+     *         the place local array does not exist here or the range is out of
+     *         bounds
+     */
+    private int[] dst() {
+      final PlaceLocalIntArray dst = (PlaceLocalIntArray) id.getHere();
+      if (dst == null) {
+        error = new BadPlaceException();
+      } else if (dstOffset < 0 || dstOffset > dst.array.length - length) {
+        error = new ArrayIndexOutOfBoundsException();
+      } else {
+        return dst.array;
+      }
+      return null;
+    }
+
+    /**
+     * Copies the elements unless deserialization already did.
+     *
+     * @throws BadPlaceException
+     *           if the place local array does not exist here
+     * @throws ArrayIndexOutOfBoundsException
+     *           if the destination range is out of bounds
+     */
+    @Override
+    public void run() {
+      if (src != null) {
+        final int[] dst = dst();
+        if (dst != null) {
+          System.arraycopy(src, srcOffset, dst, dstOffset, length);
+        }
+        src = null;
+      }
+      if (error != null) {
+        throw error;
+      }
+    }
+
+    /**
+     * Serializes the job.
+     *
+     * @param out
+     *          the object output stream
+     * @throws IOException
+     *           if I/O errors occur
+     */
+    private void writeObject(ObjectOutputStream out) throws IOException {
+      out.writeObject(id);
+      out.writeInt(dstOffset);
+      out.writeInt(length);
+      for (int i = srcOffset; i < srcOffset + length; i++) {
+        out.writeInt(src[i]);
+      }
+    }
+
+    /**
+     * Deserializes the job, storing the elements into the destination array.
+     *
+     * @param in
+     *          the object input stream
+     * @throws IOException
+     *           if I/O errors occur
+     * @throws ClassNotFoundException
+     *           if the class of the serialized object cannot be found
+     */
+    private void readObject(ObjectInputStream in)
+        throws IOException, ClassNotFoundException {
+      id = (GlobalID) in.readObject();
+      dstOffset = in.readInt();
+      length = in.readInt();
+      final int[] dst = dst();
+      for (int i = dstOffset; i < dstOffset + length; i++) {
+        final int value = in.readInt(); // consume even if dropped
+        if (dst != null) {
+          dst[i] = value;
+        }
+      }
+    }
+
+    @Override
+    public void write(Kryo kryo, Output output) {
+      kryo.writeClassAndObject(output, id);
+      output.writeInt(dstOffset);
+      output.writeInt(length);
+      for (int i = srcOffset; i < srcOffset + length; i++) {
+        output.writeInt(src[i]);
+      }
+    }
+
+    @Override
+    public void read(Kryo kryo, Input input) {
+      id = (GlobalID) kryo.readClassAndObject(input);
+      dstOffset = input.readInt();
+      length = input.readInt();
+      final int[] dst = dst();
+      for (int i = dstOffset; i < dstOffset + length; i++) {
+        final int value = input.readInt(); // consume even if dropped
+        if (dst != null) {
+          dst[i] = value;
+        }
+      }
+    }
+  }
 }
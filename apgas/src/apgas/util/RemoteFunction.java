@@ -0,0 +1,218 @@
+/*
+ *  This file is part of the X10 project (http://x10-lang.org).
+ *
+ *  This file is licensed to You under the Eclipse Public License (EPL);
+ *  You may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *      http://www.opensource.org/licenses/eclipse-1.0.php
+ *
+ *  (C) Copyright IBM Corporation 2006-2016.
+ */
+
+package apgas.util;
+
+import static apgas.Constructs.*;
+
+import java.io.Serializable;
+import java.util.Collection;
+
+import apgas.Constructs;
+import apgas.DeadPlaceException;
+import apgas.GlobalRuntime;
+import apgas.Place;
+import apgas.SerializableConsumer;
+import apgas.SerializableJob;
+import apgas.impl.GlobalRuntimeImpl;
+import apgas.impl.SerializableRunnable;
+
+/**
+ * A {@link RemoteFunction} instance is a handle to a function registered at a
+ * group of places.
+ * <p>
+ * Invoking the function at a place only sends the {@link GlobalID} of the
+ * handle and the argument. The function itself is serialized once per place
+ * at registration time. Like {@link PlaceLocalObject} instances, functions
+ * are never deallocated.
+ *
+ * @param <A>
+ *          the type of the argument of the function
+ */
+public final class RemoteFunction<A> implements Serializable {
+  private static final long serialVersionUID = -3120546432858186370L;
+
+  /**
+   * An invocation of a remote function.
+   *
+   * @param <A>
+   *          the type of the argument of the function
+   */
+  private static class Call<A> implements SerializableJob {
+    private static final long serialVersionUID = 6457712813713524417L;
+
+    /**
+     * The {@link GlobalID} of the function.
+     */
+    private final GlobalID id;
+
+    /**
+     * The argument.
+     */
+    private final A arg;
+
+    /**
+     * Constructs an invocation.
+     *
+     * @param id
+     *          the {@link GlobalID} of the function
+     * @param arg
+     *          the argument
+     */
+    Call(GlobalID id, A arg) {
+      this.id = id;
+      this.arg = arg;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void run() throws Exception {
+      final SerializableConsumer<A> f = (SerializableConsumer<A>) id
+          .getHere();
+      if (f == null) {
+        throw new BadPlaceException();
+      }
+      f.accept(arg);
+    }
+  }
+
+  /**
+   * An invocation of a remote function run by the transport.
+   *
+   * @param <A>
+   *          the type of the argument of the function
+   */
+  private static final class ImmediateCall<A> extends Call<A>
+      implements SerializableRunnable {
+    private static final long serialVersionUID = -6000416287564581337L;
+
+    /**
+     * Constructs an invocation.
+     *
+     * @param id
+     *          the {@link GlobalID} of the function
+     * @param arg
+     *          the argument
+     */
+    ImmediateCall(GlobalID id, A arg) {
+      super(id, arg);
+    }
+
+    @Override
+    public void run() {
+      try {
+        super.run();
+      } catch (final Throwable t) {
+        System.err.println("[APGAS] Uncaught exception in immediate task");
+        System.err.println("[APGAS] Caused by: " + t);
+        System.err.println("[APGAS] Ignoring...");
+      }
+    }
+  }
+
+  /**
+   * The {@link GlobalID} of this {@link RemoteFunction} instance.
+   */
+  private final GlobalID id;
+
+  /**
+   * Constructs a {@link RemoteFunction} instance.
+   *
+   * @param id
+   *          the {@link GlobalID} of the function
+   */
+  private RemoteFunction(GlobalID id) {
+    this.id = id;
+  }
+
+  /**
+   * Registers a function at all places.
+   *
+   * @param <A>
+   *          the type of the argument of the function
+   * @param f
+   *          the function
+   * @return a handle to the function
+   */
+  public static <A> RemoteFunction<A> register(SerializableConsumer<A> f) {
+    return register(places(), f);
+  }
+
+  /**
+   * Registers a function at a collection of places.
+   *
+   * @param <A>
+   *          the type of the argument of the function
+   * @param places
+   *          a collection of places with no repetition
+   * @param f
+   *          the function
+   * @return a handle to the function
+   */
+  public static <A> RemoteFunction<A> register(
+      Collection<? extends Place> places, SerializableConsumer<A> f) {
+    final GlobalID id = new GlobalID();
+    try {
+      finish(() -> asyncAtAll(places, () -> id.putHere(f)));
+    } catch (final DeadPlaceException e) {
+      id.remove(places);
+      throw e;
+    }
+    return new RemoteFunction<>(id);
+  }
+
+  /**
+   * Submits a new task to the global runtime to run the function at
+   * {@link Place} {@code p} with argument {@code arg} and returns
+   * immediately.
+   *
+   * @param p
+   *          the place of execution
+   * @param arg
+   *          the argument
+   * @see Constructs#asyncAt(Place, SerializableJob)
+   */
+  public void asyncAt(Place p, A arg) {
+    Constructs.asyncAt(p, new Call<>(id, arg));
+  }
+
+  /**
+   * Submits an uncounted task to the global runtime to run the function at
+   * {@link Place} {@code p} with argument {@code arg} and returns
+   * immediately.
+   *
+   * @param p
+   *          the place of execution
+   * @param arg
+   *          the argument
+   * @see Constructs#uncountedAsyncAt(Place, SerializableJob)
+   */
+  public void uncountedAsyncAt(Place p, A arg) {
+    Constructs.uncountedAsyncAt(p, new Call<>(id, arg));
+  }
+
+  /**
+   * Runs the function at {@link Place} {@code p} with argument {@code arg}
+   * in the transport thread receiving the message.
+   * <p>
+   * The function must be short and must not block. Exceptions are logged and
+   * ignored.
+   *
+   * @param p
+   *          the place of execution
+   * @param arg
+   *          the argument
+   */
+  public void immediateAsyncAt(Place p, A arg) {
+    ((GlobalRuntimeImpl) GlobalRuntime.getRuntime()).immediateAsyncAt(p,
+        new ImmediateCall<>(id, arg));
+  }
+}